@@ -0,0 +1,85 @@
+package us.shandian.game.twozero;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ *
+ * Board positions recorded from AI games (see RecordPositions)
+ * Every line of positions.txt is a board size followed by the
+ * exponent of every cell, row by row, 0 for an empty cell
+ *
+ */
+
+public class Corpus
+{
+    static final String FILE = "/positions.txt";
+
+    // Every board size MainView picks and the tile that wins on it
+    static final int[] SIZES = {4, 5, 6};
+
+    // log2 of the tile that wins on a board of that size
+    public static int goalExponent(int size) {
+        switch (size) {
+            case 5:
+                return 20;
+            case 6:
+                return 31;
+            default:
+                return 11;
+        }
+    }
+
+    public static List<Game> load(int size) throws IOException {
+        List<Game> games = new ArrayList<Game>();
+        InputStream in = Corpus.class.getResourceAsStream(FILE);
+        if (in == null) {
+            throw new IOException(FILE + " not found");
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.trim().split(" ");
+                if (fields.length < 2 || Integer.parseInt(fields[0]) != size) {
+                    continue;
+                }
+
+                Game game = new Game(size, size, goalExponent(size));
+                game.grid = new Grid(size, size);
+                game.spawnAfterMove = false;
+                for (int i = 0; i < size * size; i++) {
+                    int exponent = Integer.parseInt(fields[i + 1]);
+                    if (exponent != 0) {
+                        game.grid.insertTile(new Tile(i % size, i / size, 1 << exponent));
+                    }
+                }
+                games.add(game);
+            }
+        } finally {
+            reader.close();
+        }
+
+        if (games.isEmpty()) {
+            throw new IOException("No " + size + "x" + size + " positions in " + FILE);
+        }
+        return games;
+    }
+
+    public static String format(Game game) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(game.numSquaresX);
+        for (int yy = 0; yy < game.numSquaresY; yy++) {
+            for (int xx = 0; xx < game.numSquaresX; xx++) {
+                Tile tile = game.grid.field[xx][yy];
+                builder.append(' ').append(tile == null ? 0 : Board.exponentOf(tile.getValue()));
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,93 @@
+package us.shandian.game.twozero;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ *
+ * The AI heuristics over the corpus
+ * 4x4 boards go through the packed versions, bigger ones through
+ * AlphaBeta's, on the exponents it spreads its rows into
+ * The table and the network only take 4x4, see EvaluatorBenchmark
+ *
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluateBenchmark
+{
+    @Param({"4", "5", "6"})
+    int size;
+
+    // [game], 4x4 only
+    long[] boards;
+    // [game][cell], the bigger boards only
+    int[][] exponents;
+    boolean packed;
+    AlphaBeta alphaBeta;
+    int next = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        List<Game> corpus = Corpus.load(size);
+        packed = Board.fits(size, size);
+        alphaBeta = packed ? null : new AlphaBeta(size, size, Weights.DEFAULT);
+        boards = new long[corpus.size()];
+        exponents = new int[corpus.size()][];
+        for (int i = 0; i < corpus.size(); i++) {
+            Grid grid = corpus.get(i).grid;
+            if (packed) {
+                boards[i] = grid.board;
+            } else {
+                exponents[i] = alphaBeta.spread(grid.rows).clone();
+            }
+        }
+    }
+
+    int nextIndex() {
+        int index = next;
+        next = (next + 1) % boards.length;
+        return index;
+    }
+
+    @Benchmark
+    public int evaluate() {
+        int i = nextIndex();
+        return packed ? AI.evaluate(boards[i], Weights.DEFAULT) : alphaBeta.evaluate(exponents[i]);
+    }
+
+    @Benchmark
+    public int smoothness() {
+        int i = nextIndex();
+        return packed ? AI.getSmoothness(boards[i]) : alphaBeta.getSmoothness(exponents[i]);
+    }
+
+    @Benchmark
+    public int monotonicity() {
+        int i = nextIndex();
+        return packed ? AI.getMonotonticity(boards[i]) : alphaBeta.getMonotonicity(exponents[i]);
+    }
+
+    @Benchmark
+    public int islands() {
+        int i = nextIndex();
+        return packed ? AI.countIslands(boards[i]) : alphaBeta.countIslands(exponents[i]);
+    }
+}
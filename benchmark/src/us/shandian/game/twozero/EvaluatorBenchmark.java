@@ -0,0 +1,66 @@
+package us.shandian.game.twozero;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ *
+ * The evaluators the 4x4 search can use, over the 4x4 corpus
+ * They only take packed boards, so there is no other size
+ *
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluatorBenchmark
+{
+    long[] boards;
+    RowHeuristic heuristic;
+    NTupleNetwork network;
+    int next = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        List<Game> corpus = Corpus.load(Board.SIZE);
+        boards = new long[corpus.size()];
+        for (int i = 0; i < boards.length; i++) {
+            boards[i] = corpus.get(i).grid.board;
+        }
+        heuristic = new RowHeuristic(Weights.DEFAULT);
+        network = new NTupleNetwork();
+    }
+
+    long nextBoard() {
+        long board = boards[next];
+        next = (next + 1) % boards.length;
+        return board;
+    }
+
+    // What the search uses
+    @Benchmark
+    public float evaluateTable() {
+        return heuristic.evaluate(nextBoard());
+    }
+
+    // Untrained, but the lookups cost the same
+    @Benchmark
+    public float evaluateNetwork() {
+        return network.evaluate(nextBoard());
+    }
+}
@@ -0,0 +1,70 @@
+package us.shandian.game.twozero;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ *
+ * Game.move in every direction and Grid.clone over the corpus
+ *
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoveBenchmark
+{
+    @Param({"4", "5", "6"})
+    int size;
+
+    @Param({"0", "1", "2", "3"})
+    int direction;
+
+    Game[] games;
+    int next = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        List<Game> corpus = Corpus.load(size);
+        games = corpus.toArray(new Game[corpus.size()]);
+    }
+
+    Game nextGame() {
+        Game game = games[next];
+        next = (next + 1) % games.length;
+        return game;
+    }
+
+    @Benchmark
+    public boolean move() {
+        Game game = nextGame();
+        boolean moved = game.move(direction);
+
+        // Back to the recorded position for the next round
+        game.revertState();
+        game.won = false;
+        game.lose = false;
+        return moved;
+    }
+
+    @Benchmark
+    public Grid gridClone() {
+        return nextGame().grid.clone();
+    }
+}
@@ -0,0 +1,56 @@
+package us.shandian.game.twozero;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+/*
+ *
+ * Plays games with the AI and writes every few positions to the corpus
+ * Usage: RecordPositions <file>
+ *
+ */
+
+public class RecordPositions
+{
+    static final int POSITIONS_PER_SIZE = 64;
+    static final int MOVES_BETWEEN_POSITIONS = 13;
+    static final long TIME_LIMIT = 5;
+
+    public static void main(String[] args) throws IOException {
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(args[0]), "UTF-8"));
+        try {
+            for (int size : Corpus.SIZES) {
+                int recorded = 0;
+                while (recorded < POSITIONS_PER_SIZE) {
+                    Game game = new Game(size, size, Corpus.goalExponent(size));
+                    game.newGame();
+                    AI ai = new AI(game);
+                    ai.setTimeLimit(TIME_LIMIT);
+
+                    int moves = 0;
+                    while (!game.won && !game.lose && recorded < POSITIONS_PER_SIZE) {
+                        if (!game.move(ai.getBestMove())) {
+                            // The AI may give up, just play anything
+                            for (int direction = 0; direction <= 3; direction++) {
+                                if (game.move(direction)) {
+                                    break;
+                                }
+                            }
+                        }
+
+                        moves++;
+                        if (moves % MOVES_BETWEEN_POSITIONS == 0 && !game.won && !game.lose) {
+                            out.println(Corpus.format(game));
+                            recorded++;
+                        }
+                    }
+                    ai.shutdown();
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package us.shandian.game.twozero;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ *
+ * AI.getBestMove at a fixed depth over the corpus, with no time limit
+ * The transposition table is emptied before every call,
+ * so no result comes from an earlier call
+ *
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark
+{
+    @Param({"4", "5", "6"})
+    int size;
+
+    @Param({"1", "2", "3"})
+    int depth;
+
+    Grid[] grids;
+    Game game;
+    AI ai;
+    int next = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        List<Game> corpus = Corpus.load(size);
+        grids = new Grid[corpus.size()];
+        for (int i = 0; i < grids.length; i++) {
+            grids[i] = corpus.get(i).grid;
+        }
+
+        game = corpus.get(0);
+        ai = new AI(game);
+        ai.setMaxDepth(depth);
+        ai.setTimeLimit(TimeUnit.DAYS.toMillis(1));
+    }
+
+    @Setup(Level.Invocation)
+    public void nextPosition() {
+        game.grid = grids[next];
+        next = (next + 1) % grids.length;
+        ai.getTranspositionTable().clear();
+    }
+
+    @Benchmark
+    public int getBestMove() {
+        return ai.getBestMove();
+    }
+
+    @TearDown
+    public void tearDown() {
+        ai.shutdown();
+    }
+}
@@ -0,0 +1,480 @@
+package us.shandian.game.twozero;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/*
+ *
+ * This is a simple AI for the 2048 game
+ * 4x4 boards are searched with expectimax (see Expectimax),
+ * or with random playouts if asked to (see MonteCarlo)
+ * The bigger boards still use the alpha-beta method (see AlphaBeta)
+ * Credits to: Matt Overlan
+ *
+ */
+
+public class AI
+{
+    static final long MAX_CONSIDERING_TIME = 100;
+    static final int MAX_DEPTH = 8;
+    static final int TABLE_SIZE_MB = 4;
+    
+    // A deeper pass is not started unless this many times
+    // the last one fits before the deadline
+    static final int PASS_GROWTH = 2;
+    
+    // How 4x4 boards are searched
+    public static final int ENGINE_EXPECTIMAX = 0;
+    public static final int ENGINE_MONTE_CARLO = 1;
+    // Expectimax too, for whoever sets a learned evaluator
+    public static final int ENGINE_NTUPLE = 2;
+    
+    static final int[] DX = {0, 1, 0, -1};
+    static final int[] DY = {-1, 0, 1, 0};
+    
+    Game mGame;
+    TranspositionTable mTable;
+    Expectimax mExpectimax;
+    AlphaBeta mAlphaBeta;
+    Weights mWeights = Weights.DEFAULT;
+    MonteCarlo mMonteCarlo;
+    int mEngine = ENGINE_EXPECTIMAX;
+    int mMaxDepth = MAX_DEPTH;
+    TimeManager mTimeManager = new TimeManager(MAX_CONSIDERING_TIME);
+    int mThreads = 1;
+    ExecutorService mExecutor;
+    
+    // The last move given, and how deep it was searched
+    long mLastBoard;
+    int mLastMove = -1;
+    int mLastDepth = 0;
+    
+    // What the last move cost
+    long mLastNodes;
+    long mLastNanos;
+    long mLastBudget;
+    
+    public AI(Game game) {
+        mGame = game;
+        // Kept for the whole life of the AI, so positions searched
+        // for one move are reused by the next ones
+        mTable = new TranspositionTable(TABLE_SIZE_MB);
+        mExpectimax = new Expectimax(game.goalExponent, mTable);
+    }
+    
+    // Play another game with the same tables
+    // Nothing searched for the old game is kept
+    public void setGame(Game game) {
+        mExpectimax.setWinExponent(game.goalExponent);
+        mGame = game;
+        mTable.clear();
+    }
+    
+    // Scores searched with the old weights are dropped
+    public void setWeights(Weights weights) {
+        mWeights = weights;
+        if (mAlphaBeta != null) {
+            mAlphaBeta.setWeights(weights);
+        }
+        if (!(mExpectimax.getEvaluator() instanceof RowHeuristic)
+                || ((RowHeuristic) mExpectimax.getEvaluator()).getWeights() != weights) {
+            mExpectimax.setEvaluator(new RowHeuristic(weights));
+            mTable.clear();
+        }
+    }
+    
+    // Evaluates 4x4 boards with something else than the weighed heuristics,
+    // null goes back to them
+    public void setEvaluator(Evaluator evaluator) {
+        mExpectimax.setEvaluator(evaluator != null ? evaluator : new RowHeuristic(mWeights));
+        mTable.clear();
+    }
+    
+    public Weights getWeights() {
+        return mWeights;
+    }
+    
+    public void setEngine(int engine) {
+        mEngine = engine;
+    }
+    
+    // Created on first use, seeded from the clock unless told otherwise
+    public MonteCarlo getMonteCarlo() {
+        if (mMonteCarlo == null) {
+            mMonteCarlo = new MonteCarlo(System.nanoTime());
+        }
+        return mMonteCarlo;
+    }
+    
+    public TranspositionTable getTranspositionTable() {
+        return mTable;
+    }
+    
+    // Deepest iteration getBestMove will start
+    public void setMaxDepth(int depth) {
+        mMaxDepth = depth;
+    }
+    
+    // Milliseconds a move may take on an average board
+    public void setTimeLimit(long time) {
+        mTimeManager.setBase(time);
+    }
+    
+    public TimeManager getTimeManager() {
+        return mTimeManager;
+    }
+    
+    // Deepest pass completed for the last move (-1 if none),
+    // 0 for Monte Carlo
+    public int getLastDepth() {
+        return mLastDepth;
+    }
+    
+    // Player nodes searched for the last move, or playouts played
+    public long getLastNodes() {
+        return mLastNodes;
+    }
+    
+    public long getLastNanos() {
+        return mLastNanos;
+    }
+    
+    // Nanoseconds the last move was given
+    public long getLastBudget() {
+        return mLastBudget;
+    }
+    
+    // Worker threads for 4x4 searches, 0 for one per core
+    public void setThreads(int threads) {
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        
+        if (threads != mThreads && mExecutor != null) {
+            mExecutor.shutdown();
+            mExecutor = null;
+        }
+        mThreads = threads;
+    }
+    
+    public int getBestMove() {
+        
+        int bestMove = 0;
+        int depth = 0;
+        long start = System.nanoTime();
+        mLastBudget = mTimeManager.budget(mGame);
+        long deadline = start + mLastBudget;
+        boolean packed = mGame.grid.packed;
+        long board = mGame.grid.board;
+        
+        if (packed && mEngine == ENGINE_MONTE_CARLO) {
+            bestMove = getBestMonteCarloMove(board, deadline);
+            mLastMove = -1;
+            mLastDepth = 0;
+            mLastNodes = getMonteCarlo().getLastPlayouts();
+            mLastNanos = System.nanoTime() - start;
+            return bestMove;
+        }
+        
+        if (packed) {
+            // Pondered, or searched before, as deep as we would go now
+            long data = mTable.probe(board);
+            if (mLastDepth > 0 && data != 0 && TranspositionTable.depthOf(data) >= mLastDepth) {
+                mLastBoard = board;
+                mLastMove = TranspositionTable.moveOf(data);
+                mLastDepth = TranspositionTable.depthOf(data);
+                mLastNodes = 0;
+                mLastNanos = System.nanoTime() - start;
+                return mLastMove;
+            }
+            
+            mTable.newSearch();
+        }
+        
+        AlphaBeta alphaBeta = packed ? null : getAlphaBeta();
+        mExpectimax.resetNodes();
+        if (alphaBeta != null) {
+            alphaBeta.resetNodes();
+        }
+        long last = 0;
+        do {
+            long passStart = System.nanoTime();
+            // The first pass always finishes, there has to be a move
+            long passDeadline = depth == 0 ? Expectimax.NO_DEADLINE : deadline;
+            
+            int move;
+            if (!packed) {
+                alphaBeta.setDeadline(passDeadline);
+                move = alphaBeta.search(mGame.grid, depth);
+            } else if (mThreads > 1) {
+                mExpectimax.setDeadline(passDeadline);
+                try {
+                    move = mExpectimax.search(board, depth, getExecutor());
+                } catch (InterruptedException e) {
+                    // Let the caller see it was stopped
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            } else {
+                mExpectimax.setDeadline(passDeadline);
+                move = mExpectimax.search(board, depth);
+            }
+            
+            // Out of time or out of moves, the last whole pass stands
+            if (move == -1) {
+                break;
+            } else {
+                bestMove = move;
+                depth++;
+            }
+            last = System.nanoTime() - passStart;
+        } while (depth <= mMaxDepth && System.nanoTime() + last * PASS_GROWTH < deadline);
+        
+        mLastBoard = board;
+        mLastMove = depth > 0 ? bestMove : -1;
+        mLastDepth = depth - 1;
+        mLastNodes = packed ? mExpectimax.getNodes() : alphaBeta.getNodes();
+        mLastNanos = System.nanoTime() - start;
+        
+        return bestMove;
+    }
+    
+    /*
+     *
+     * Use the time the move is being shown to search the replies
+     * to every tile that may come after it, deeper and deeper
+     * until the deadline (milliseconds, as System.currentTimeMillis)
+     * getBestMove then answers straight from the table
+     * Returns false if there was nothing to ponder
+     *
+     */
+    public boolean ponder(long deadline) {
+        if (!mGame.grid.packed || mEngine == ENGINE_MONTE_CARLO || mLastMove == -1) {
+            return false;
+        }
+        
+        long afterstate = Board.move(mLastBoard, mLastMove);
+        if (afterstate == mLastBoard || Board.countEmpty(afterstate) == 0) {
+            return false;
+        }
+        
+        long end = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(deadline - System.currentTimeMillis());
+        mExpectimax.setDeadline(end);
+        mTable.newSearch();
+        long last = 0;
+        for (int depth = 0; depth <= mMaxDepth; depth++) {
+            long start = System.nanoTime();
+            if (start + last * PASS_GROWTH > end) {
+                break;
+            }
+            
+            if (Float.isNaN(mExpectimax.ponder(afterstate, depth))) {
+                break;
+            }
+            last = System.nanoTime() - start;
+        }
+        return true;
+    }
+    
+    private int getBestMonteCarloMove(long board, long deadline) {
+        MonteCarlo monteCarlo = getMonteCarlo();
+        int move;
+        if (mThreads > 1) {
+            try {
+                move = monteCarlo.search(board, deadline, getExecutor(), mThreads);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return 0;
+            }
+        } else {
+            move = monteCarlo.search(board, deadline);
+        }
+        return move == -1 ? 0 : move;
+    }
+    
+    // Made for the size of the board, again if it changes
+    private AlphaBeta getAlphaBeta() {
+        if (mAlphaBeta == null || !mAlphaBeta.fits(mGame.numSquaresX, mGame.numSquaresY)) {
+            mAlphaBeta = new AlphaBeta(mGame.numSquaresX, mGame.numSquaresY, mWeights);
+        }
+        return mAlphaBeta;
+    }
+    
+    private ExecutorService getExecutor() {
+        if (mExecutor == null) {
+            // Idle workers die on their own once the AI stops asking
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(mThreads, mThreads,
+                    1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "AI worker");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            mExecutor = executor;
+        }
+        return mExecutor;
+    }
+    
+    public void shutdown() {
+        if (mExecutor != null) {
+            mExecutor.shutdown();
+            mExecutor = null;
+        }
+    }
+    
+    // Evaluate how is it if we take the step
+    static int evaluate(long board, Weights weights) {
+        int smooth = getSmoothness(board);
+        int mono = getMonotonticity(board);
+        int empty = Board.countEmpty(board);
+        int max = 1 << Board.maxExponent(board);
+        // Not worth counting when they do not count
+        int islands = weights.islands == 0 ? 0 : countIslands(board);
+        int twoAndFour = weights.twoAndFour == 0 ? 0 : countTwosAndFours(board);
+        
+        return (int) (smooth * weights.smooth
+                    + mono * weights.mono
+                    + Math.log(empty) * weights.empty
+                    + max * weights.max
+                    - islands * weights.islands
+                    - twoAndFour * weights.twoAndFour);
+    }
+    
+    static int getSmoothness(long board) {
+        int smoothness = 0;
+        for (int x = 0; x < Board.SIZE; x++) {
+            for (int y = 0; y < Board.SIZE; y++) {
+                int value = Board.getExponent(board, x, y);
+                if (value == 0) {
+                    continue;
+                }
+                
+                // Nearest tile to the right
+                for (int xx = x + 1; xx < Board.SIZE; xx++) {
+                    int targetValue = Board.getExponent(board, xx, y);
+                    if (targetValue != 0) {
+                        smoothness -= Math.abs(value - targetValue);
+                        break;
+                    }
+                }
+                
+                // Nearest tile below
+                for (int yy = y + 1; yy < Board.SIZE; yy++) {
+                    int targetValue = Board.getExponent(board, x, yy);
+                    if (targetValue != 0) {
+                        smoothness -= Math.abs(value - targetValue);
+                        break;
+                    }
+                }
+            }
+        }
+        
+        return smoothness;
+    }
+    
+    static int getMonotonticity(long board) {
+        int[] totals = {0, 0, 0, 0};
+        
+        // Up-down
+        for (int x = 0; x < Board.SIZE; x++) {
+            int current = 0;
+            int next = current + 1;
+            while (next < Board.SIZE) {
+                while (next < Board.SIZE && Board.getExponent(board, x, next) == 0) {
+                    next++;
+                }
+                if (next >= Board.SIZE) {
+                    next--;
+                }
+                int currentValue = Board.getExponent(board, x, current);
+                int nextValue = Board.getExponent(board, x, next);
+                if (currentValue > nextValue) {
+                    totals[0] += nextValue - currentValue;
+                } else if (nextValue > currentValue) {
+                    totals[1] += currentValue - nextValue;
+                }
+                current = next;
+                next++;
+            }
+        }
+        
+        // Left-right
+        for (int y = 0; y < Board.SIZE; y++) {
+            int current = 0;
+            int next = current + 1;
+            while (next < Board.SIZE) {
+                while (next < Board.SIZE && Board.getExponent(board, next, y) == 0) {
+                    next++;
+                }
+                if (next >= Board.SIZE) {
+                    next--;
+                }
+                int currentValue = Board.getExponent(board, current, y);
+                int nextValue = Board.getExponent(board, next, y);
+                if (currentValue > nextValue) {
+                    totals[2] += nextValue - currentValue;
+                } else if (nextValue > currentValue) {
+                    totals[3] += currentValue - nextValue;
+                }
+                current = next;
+                next++;
+            }
+        }
+        
+        return Math.max(totals[0], totals[1]) + Math.max(totals[2], totals[3]);
+    }
+    
+    static int countIslands(long board) {
+        int islands = 0;
+        int marked = 0;
+        
+        for (int x = 0; x < Board.SIZE; x++) {
+            for (int y = 0; y < Board.SIZE; y++) {
+                int value = Board.getExponent(board, x, y);
+                if (value != 0 && (marked & (1 << (y * Board.SIZE + x))) == 0) {
+                    islands++;
+                    marked = mark(board, x, y, value, marked);
+                }
+            }
+        }
+        
+        return islands;
+    }
+    
+    static int countTwosAndFours(long board) {
+        int num = 0;
+        for (int i = 0; i < Board.SIZE * Board.SIZE; i++) {
+            int exponent = (int) (board >>> (i * 4)) & 0xF;
+            if (exponent == 1 || exponent == 2) {
+                num++;
+            }
+        }
+        return num;
+    }
+    
+    // Flood the island of (x, y), the marked cells are kept as a bit mask
+    private static int mark(long board, int x, int y, int value, int marked) {
+        if (x < 0 || x >= Board.SIZE || y < 0 || y >= Board.SIZE) {
+            return marked;
+        }
+        
+        int bit = 1 << (y * Board.SIZE + x);
+        if ((marked & bit) == 0 && Board.getExponent(board, x, y) == value) {
+            marked |= bit;
+            
+            for (int i = 0; i <= 3; i++) {
+                marked = mark(board, x + DX[i], y + DY[i], value, marked);
+            }
+        }
+        
+        return marked;
+    }
+}
@@ -0,0 +1,483 @@
+package us.shandian.game.twozero;
+
+import java.util.Arrays;
+
+/*
+ *
+ * The alpha-beta search of the AI, for boards too big to pack
+ * Simulates two players' game: the Doctor moves, and the Daleks
+ * answer with the new tiles that hurt the Doctor the most
+ *
+ * Boards are the rows of a WideBoard, up to 6x6, one per ply, so a move
+ * slides whole rows; they are spread into exponents in field order
+ * (x * height + y) only to be evaluated
+ * All of it is allocated once and reused by every search after it,
+ * so a search makes no garbage for the UI thread to pause on
+ *
+ */
+
+public class AlphaBeta
+{
+    static final int WIN_SCORE = 10000;
+
+    // Nodes between two looks at the clock, minus one
+    static final int CHECK_MASK = (1 << 4) - 1;
+
+    final int mWidth;
+    final int mHeight;
+    final int mCells;
+    final WideBoard mWide;
+    Weights mWeights;
+
+    // [ply][row]
+    int[][] mBoards = new int[0][];
+
+    // The board being evaluated, [cell]
+    final int[] mExponents;
+
+    // Of the board the Daleks add a tile to: its columns packed like
+    // its rows, and the smoothness of every row and column
+    final int[] mColumns;
+    final int[] mRowSmoothness;
+    final int[] mColumnSmoothness;
+
+    // How bad each tile the Daleks could place is, [ply][value * cells + cell]
+    int[][] mThreats = new int[0][];
+
+    // Flood fill of the islands
+    final int[] mStack;
+    final int[] mMarks;
+    int mMark;
+
+    long mDeadline = Expectimax.NO_DEADLINE;
+    boolean mAborted;
+    long mNodes;
+    int mBestMove;
+
+    public AlphaBeta(int width, int height, Weights weights) {
+        if (width > WideBoard.MAX_SIZE || height > WideBoard.MAX_SIZE) {
+            throw new IllegalArgumentException("No AI for boards bigger than 6x6");
+        }
+        mWidth = width;
+        mHeight = height;
+        mCells = width * height;
+        mWide = new WideBoard(width, height);
+        mWeights = weights;
+        mExponents = new int[mCells];
+        mColumns = new int[width];
+        mRowSmoothness = new int[height];
+        mColumnSmoothness = new int[width];
+        mStack = new int[mCells];
+        mMarks = new int[mCells];
+    }
+
+    public boolean fits(int width, int height) {
+        return width == mWidth && height == mHeight;
+    }
+
+    public void setWeights(Weights weights) {
+        mWeights = weights;
+    }
+
+    // System.nanoTime after which searches give up, Expectimax.NO_DEADLINE for never
+    public void setDeadline(long deadline) {
+        mDeadline = deadline;
+    }
+
+    // Nodes searched since the last reset, both players
+    public long getNodes() {
+        return mNodes;
+    }
+
+    public void resetNodes() {
+        mNodes = 0;
+    }
+
+    // Best move looking depth moves ahead, -1 if there is none or it ran out of time
+    public int search(Grid grid, int depth) {
+        ensurePlies(2 * depth + 2);
+
+        if (grid.wide != null) {
+            System.arraycopy(grid.rows, 0, mBoards[0], 0, mHeight);
+        } else {
+            mWide.fromGrid(grid, mBoards[0]);
+        }
+
+        mAborted = false;
+        mBestMove = -1;
+        searchDoctor(0, depth, -WIN_SCORE, WIN_SCORE);
+        return mAborted ? -1 : mBestMove;
+    }
+
+    // Grows only when a deeper search than ever before comes
+    private void ensurePlies(int plies) {
+        if (mBoards.length >= plies) {
+            return;
+        }
+
+        int[][] boards = new int[plies][];
+        int[][] threats = new int[plies][];
+        for (int i = 0; i < plies; i++) {
+            boards[i] = i < mBoards.length ? mBoards[i] : new int[mHeight];
+            threats[i] = i < mThreats.length ? mThreats[i] : new int[2 * mCells];
+        }
+        mBoards = boards;
+        mThreats = threats;
+    }
+
+    // Counts a node, and tells whether the search has to give up
+    private boolean aborted() {
+        if ((++mNodes & CHECK_MASK) == 0 && System.nanoTime() > mDeadline) {
+            mAborted = true;
+        }
+        return mAborted;
+    }
+
+    // The Doctor's turn, on the board of this ply
+    private int searchDoctor(int ply, int depth, int alpha, int beta) {
+        if (aborted()) {
+            return 0;
+        }
+
+        int[] board = mBoards[ply];
+        int[] next = mBoards[ply + 1];
+        int bestMove = -1;
+        int bestScore = alpha;
+
+        for (int i = 0; i <= 3; i++) {
+            if (!move(board, next, i)) {
+                continue;
+            }
+
+            int score;
+            if (depth == 0) {
+                // Just eval if this is at the bottom
+                score = evaluate(spread(next));
+            } else {
+                score = searchDaleks(ply + 1, depth - 1, bestScore, beta);
+
+                // Don't search any further if won
+                if (score > WIN_SCORE - 100) {
+                    score--;
+                }
+            }
+
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = i;
+            }
+
+            // We have found a much much better move
+            if (bestScore > beta) {
+                bestScore = beta;
+                break;
+            }
+        }
+
+        if (ply == 0) {
+            mBestMove = bestMove;
+        }
+        return bestScore;
+    }
+
+    // The Daleks' turn: only the worst tiles for the Doctor are tried
+    private int searchDaleks(int ply, int depth, int alpha, int beta) {
+        if (aborted()) {
+            return 0;
+        }
+
+        int[] rows = mBoards[ply];
+        int[] board = spread(rows);
+        int[] threats = mThreats[ply];
+        int maxThreat = Integer.MIN_VALUE;
+
+        // A new tile only changes the smoothness of its row and column,
+        // and can only join the islands next to it
+        int smoothness = 0;
+        for (int y = 0; y < mHeight; y++) {
+            mRowSmoothness[y] = getSmoothness(rows[y], mWidth);
+            smoothness += mRowSmoothness[y];
+        }
+        for (int x = 0; x < mWidth; x++) {
+            int column = 0;
+            for (int y = mHeight - 1; y >= 0; y--) {
+                column = column << WideBoard.BITS | board[x * mHeight + y];
+            }
+            mColumns[x] = column;
+            mColumnSmoothness[x] = getSmoothness(column, mHeight);
+            smoothness += mColumnSmoothness[x];
+        }
+        int islands = countIslands(board);
+
+        // Try every 2, then every 4
+        for (int value = 1; value <= 2; value++) {
+            for (int cell = 0; cell < mCells; cell++) {
+                if (board[cell] != 0) {
+                    continue;
+                }
+
+                int x = cell / mHeight;
+                int y = cell % mHeight;
+                int smooth = smoothness - mRowSmoothness[y] - mColumnSmoothness[x]
+                        + getSmoothness(rows[y] | value << (WideBoard.BITS * x), mWidth)
+                        + getSmoothness(mColumns[x] | value << (WideBoard.BITS * y), mHeight);
+                int threat = -smooth + islands + 1 - countJoined(board, x, y, value);
+
+                threats[(value - 1) * mCells + cell] = threat;
+                maxThreat = Math.max(maxThreat, threat);
+            }
+        }
+
+        int[] next = mBoards[ply + 1];
+        int bestScore = beta;
+        for (int value = 1; value <= 2; value++) {
+            for (int cell = 0; cell < mCells; cell++) {
+                // board is spread again by the plies below, rows are not
+                int x = cell / mHeight;
+                int y = cell % mHeight;
+                if (WideBoard.getExponent(rows, x, y) != 0 || threats[(value - 1) * mCells + cell] != maxThreat) {
+                    continue;
+                }
+
+                System.arraycopy(rows, 0, next, 0, mHeight);
+                WideBoard.setExponent(next, x, y, value);
+                int score = searchDoctor(ply + 1, depth, alpha, bestScore);
+
+                if (score < bestScore) {
+                    bestScore = score;
+                }
+
+                // Computer lose
+                if (bestScore < alpha) {
+                    return alpha;
+                }
+            }
+        }
+
+        return bestScore;
+    }
+
+    // Slides board into next as Game.move would, false if nothing moved
+    boolean move(int[] board, int[] next, int direction) {
+        return mWide.move(board, next, direction) >= 0;
+    }
+
+    // The rows as exponents in field order, for evaluating
+    int[] spread(int[] rows) {
+        int[] exponents = mExponents;
+        for (int y = 0; y < mHeight; y++) {
+            int row = rows[y];
+            for (int x = 0; x < mWidth; x++, row >>>= WideBoard.BITS) {
+                exponents[x * mHeight + y] = row & WideBoard.MAX_EXPONENT;
+            }
+        }
+        return exponents;
+    }
+
+    // Same as AI.evaluate(long, Weights), on exponents of any size
+    int evaluate(int[] board) {
+        int smooth = getSmoothness(board);
+        int mono = getMonotonicity(board);
+        int empty = 0;
+        int max = 0;
+        int twoAndFour = 0;
+        for (int exponent : board) {
+            if (exponent == 0) {
+                empty++;
+            } else if (exponent <= 2) {
+                twoAndFour++;
+            }
+            max = Math.max(max, exponent);
+        }
+        int islands = mWeights.islands == 0 ? 0 : countIslands(board);
+        if (mWeights.twoAndFour == 0) {
+            twoAndFour = 0;
+        }
+
+        return (int) (smooth * mWeights.smooth
+                    + mono * mWeights.mono
+                    + Math.log(empty) * mWeights.empty
+                    + (max == 0 ? 0 : 1 << max) * mWeights.max
+                    - islands * mWeights.islands
+                    - twoAndFour * mWeights.twoAndFour);
+    }
+
+    int getSmoothness(int[] board) {
+        int smoothness = 0;
+        for (int x = 0; x < mWidth; x++) {
+            for (int y = 0; y < mHeight; y++) {
+                int value = board[x * mHeight + y];
+                if (value == 0) {
+                    continue;
+                }
+
+                // Nearest tile to the right
+                for (int xx = x + 1; xx < mWidth; xx++) {
+                    int targetValue = board[xx * mHeight + y];
+                    if (targetValue != 0) {
+                        smoothness -= Math.abs(value - targetValue);
+                        break;
+                    }
+                }
+
+                // Nearest tile below
+                for (int yy = y + 1; yy < mHeight; yy++) {
+                    int targetValue = board[x * mHeight + yy];
+                    if (targetValue != 0) {
+                        smoothness -= Math.abs(value - targetValue);
+                        break;
+                    }
+                }
+            }
+        }
+
+        return smoothness;
+    }
+
+    // The same along one packed row or column: every tile against the next one
+    static int getSmoothness(int line, int length) {
+        int smoothness = 0;
+        int last = 0;
+        for (int i = 0; i < length; i++, line >>>= WideBoard.BITS) {
+            int value = line & WideBoard.MAX_EXPONENT;
+            if (value == 0) {
+                continue;
+            }
+            if (last != 0) {
+                smoothness -= Math.abs(last - value);
+            }
+            last = value;
+        }
+        return smoothness;
+    }
+
+    int getMonotonicity(int[] board) {
+        int up = 0;
+        int down = 0;
+        int left = 0;
+        int right = 0;
+
+        // Up-down
+        for (int x = 0; x < mWidth; x++) {
+            int current = 0;
+            int next = current + 1;
+            while (next < mHeight) {
+                while (next < mHeight && board[x * mHeight + next] == 0) {
+                    next++;
+                }
+                if (next >= mHeight) {
+                    next--;
+                }
+                int currentValue = board[x * mHeight + current];
+                int nextValue = board[x * mHeight + next];
+                if (currentValue > nextValue) {
+                    up += nextValue - currentValue;
+                } else if (nextValue > currentValue) {
+                    down += currentValue - nextValue;
+                }
+                current = next;
+                next++;
+            }
+        }
+
+        // Left-right
+        for (int y = 0; y < mHeight; y++) {
+            int current = 0;
+            int next = current + 1;
+            while (next < mWidth) {
+                while (next < mWidth && board[next * mHeight + y] == 0) {
+                    next++;
+                }
+                if (next >= mWidth) {
+                    next--;
+                }
+                int currentValue = board[current * mHeight + y];
+                int nextValue = board[next * mHeight + y];
+                if (currentValue > nextValue) {
+                    left += nextValue - currentValue;
+                } else if (nextValue > currentValue) {
+                    right += currentValue - nextValue;
+                }
+                current = next;
+                next++;
+            }
+        }
+
+        return Math.max(up, down) + Math.max(left, right);
+    }
+
+    // Groups of touching equal tiles, each left with a mark of its own in mMarks
+    int countIslands(int[] board) {
+        // New marks for every count, so nothing has to be cleared
+        if (mMark > Integer.MAX_VALUE - mCells) {
+            Arrays.fill(mMarks, 0);
+            mMark = 0;
+        }
+        int counted = mMark;
+
+        int islands = 0;
+        for (int start = 0; start < mCells; start++) {
+            int value = board[start];
+            if (value == 0 || mMarks[start] > counted) {
+                continue;
+            }
+
+            islands++;
+            int mark = ++mMark;
+            int top = 0;
+            mStack[top++] = start;
+            mMarks[start] = mark;
+            while (top > 0) {
+                int cell = mStack[--top];
+                int x = cell / mHeight;
+                int y = cell % mHeight;
+                for (int i = 0; i <= 3; i++) {
+                    int xx = x + AI.DX[i];
+                    int yy = y + AI.DY[i];
+                    if (xx < 0 || xx >= mWidth || yy < 0 || yy >= mHeight) {
+                        continue;
+                    }
+
+                    int neighbour = xx * mHeight + yy;
+                    if (mMarks[neighbour] <= counted && board[neighbour] == value) {
+                        mMarks[neighbour] = mark;
+                        mStack[top++] = neighbour;
+                    }
+                }
+            }
+        }
+
+        return islands;
+    }
+
+    // Islands of value next to the empty (x, y) a tile there would join,
+    // from the marks of the last countIslands on board
+    private int countJoined(int[] board, int x, int y, int value) {
+        int joined = 0;
+        int first = 0;
+        int second = 0;
+        int third = 0;
+        for (int i = 0; i <= 3; i++) {
+            int xx = x + AI.DX[i];
+            int yy = y + AI.DY[i];
+            if (xx < 0 || xx >= mWidth || yy < 0 || yy >= mHeight) {
+                continue;
+            }
+
+            int neighbour = xx * mHeight + yy;
+            int mark = mMarks[neighbour];
+            if (board[neighbour] != value || mark == first || mark == second || mark == third) {
+                continue;
+            }
+            joined++;
+            if (first == 0) {
+                first = mark;
+            } else if (second == 0) {
+                second = mark;
+            } else {
+                third = mark;
+            }
+        }
+        return joined;
+    }
+}
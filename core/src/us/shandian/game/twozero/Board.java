@@ -0,0 +1,226 @@
+package us.shandian.game.twozero;
+
+/*
+ *
+ * A 4x4 board packed into a single long
+ * Every cell takes 4 bits holding log2 of its value (0 = empty)
+ * Cell (x, y) lives in nibble y * 4 + x, so every row is a 16-bit chunk
+ *
+ */
+
+public class Board
+{
+    static final int SIZE = 4;
+    static final int MAX_EXPONENT = 15;
+
+    static final long ROW_MASK = 0xFFFFL;
+    static final long NIBBLE_LOW_BITS = 0x1111111111111111L;
+
+    // Every 16-bit row after sliding left / right, and the points the merges earn
+    static final char[] ROW_LEFT = new char[65536];
+    static final char[] ROW_RIGHT = new char[65536];
+    static final int[] ROW_SCORE = new int[65536];
+
+    static {
+        for (int row = 0; row < 65536; row++) {
+            ROW_LEFT[row] = (char) slideRowLeft(row);
+            ROW_RIGHT[row] = (char) reverseRow(slideRowLeft(reverseRow(row)));
+            ROW_SCORE[row] = rowScore(row);
+        }
+    }
+
+    private Board() {
+
+    }
+
+    // Only square 4x4 boards fit into a long
+    public static boolean fits(int sizeX, int sizeY) {
+        return sizeX == SIZE && sizeY == SIZE;
+    }
+
+    public static int exponentOf(int value) {
+        return Integer.numberOfTrailingZeros(value);
+    }
+
+    public static int getExponent(long board, int x, int y) {
+        return (int) (board >>> shift(x, y)) & 0xF;
+    }
+
+    public static int getValue(long board, int x, int y) {
+        int exponent = getExponent(board, x, y);
+        return exponent == 0 ? 0 : 1 << exponent;
+    }
+
+    public static long setExponent(long board, int x, int y, int exponent) {
+        int shift = shift(x, y);
+        return (board & ~(0xFL << shift)) | ((long) exponent << shift);
+    }
+
+    public static int getRow(long board, int y) {
+        return (int) ((board >>> (16 * y)) & ROW_MASK);
+    }
+
+    public static int countEmpty(long board) {
+        // Fold every nibble into its lowest bit, then count the zero nibbles
+        board |= (board >>> 2) & 0x3333333333333333L;
+        board |= board >>> 1;
+        return Long.bitCount(~board & NIBBLE_LOW_BITS);
+    }
+
+    // Index (y * 4 + x) of the n-th empty cell, or -1 if there is none
+    public static int nthEmpty(long board, int n) {
+        for (int i = 0; i < SIZE * SIZE; i++) {
+            if (((board >>> (4 * i)) & 0xF) == 0) {
+                if (n == 0) {
+                    return i;
+                }
+                n--;
+            }
+        }
+        return -1;
+    }
+
+    public static int maxExponent(long board) {
+        int max = 0;
+        while (board != 0) {
+            max = Math.max(max, (int) (board & 0xF));
+            board >>>= 4;
+        }
+        return max;
+    }
+
+    // 0: up, 1: right, 2: down, 3: left
+    public static long move(long board, int direction) {
+        switch (direction) {
+            case 0:
+                return transpose(moveRowsLeft(transpose(board)));
+            case 1:
+                return moveRowsRight(board);
+            case 2:
+                return transpose(moveRowsRight(transpose(board)));
+            case 3:
+                return moveRowsLeft(board);
+        }
+        return board;
+    }
+
+    // Points earned by the merges of a move
+    public static int scoreMove(long board, int direction) {
+        if (direction == 0 || direction == 2) {
+            board = transpose(board);
+        }
+
+        // Merges score the same whichever way the row slides
+        return ROW_SCORE[(int) (board & ROW_MASK)]
+             + ROW_SCORE[(int) ((board >>> 16) & ROW_MASK)]
+             + ROW_SCORE[(int) ((board >>> 32) & ROW_MASK)]
+             + ROW_SCORE[(int) ((board >>> 48) & ROW_MASK)];
+    }
+
+    public static boolean isGameOver(long board) {
+        if (countEmpty(board) > 0) {
+            return false;
+        }
+        for (int direction = 0; direction <= 3; direction++) {
+            if (move(board, direction) != board) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Swap rows and columns
+    public static long transpose(long board) {
+        long a1 = board & 0xF0F00F0FF0F00F0FL;
+        long a2 = board & 0x0000F0F00000F0F0L;
+        long a3 = board & 0x0F0F00000F0F0000L;
+        long a = a1 | (a2 << 12) | (a3 >>> 12);
+        long b1 = a & 0xFF00FF0000FF00FFL;
+        long b2 = a & 0x00FF00FF00000000L;
+        long b3 = a & 0x00000000FF00FF00L;
+        return b1 | (b2 >>> 24) | (b3 << 24);
+    }
+
+    public static long fromGrid(Grid grid) {
+        long board = 0;
+        for (int xx = 0; xx < SIZE; xx++) {
+            for (int yy = 0; yy < SIZE; yy++) {
+                Tile tile = grid.field[xx][yy];
+                if (tile != null) {
+                    board = setExponent(board, xx, yy, exponentOf(tile.getValue()));
+                }
+            }
+        }
+        return board;
+    }
+
+    private static long moveRowsLeft(long board) {
+        return (long) ROW_LEFT[(int) (board & ROW_MASK)]
+             | (long) ROW_LEFT[(int) ((board >>> 16) & ROW_MASK)] << 16
+             | (long) ROW_LEFT[(int) ((board >>> 32) & ROW_MASK)] << 32
+             | (long) ROW_LEFT[(int) ((board >>> 48) & ROW_MASK)] << 48;
+    }
+
+    private static long moveRowsRight(long board) {
+        return (long) ROW_RIGHT[(int) (board & ROW_MASK)]
+             | (long) ROW_RIGHT[(int) ((board >>> 16) & ROW_MASK)] << 16
+             | (long) ROW_RIGHT[(int) ((board >>> 32) & ROW_MASK)] << 32
+             | (long) ROW_RIGHT[(int) ((board >>> 48) & ROW_MASK)] << 48;
+    }
+
+    // Slide a 16-bit row towards nibble 0, merging equal neighbours once
+    // Only used to fill the tables above
+    static int slideRowLeft(int row) {
+        int result = 0;
+        int count = 0;
+        int pending = 0;
+        for (int i = 0; i < SIZE; i++) {
+            int exponent = (row >>> (4 * i)) & 0xF;
+            if (exponent == 0) {
+                continue;
+            }
+
+            if (pending == 0) {
+                pending = exponent;
+            } else if (pending == exponent) {
+                result |= Math.min(exponent + 1, MAX_EXPONENT) << (4 * count++);
+                pending = 0;
+            } else {
+                result |= pending << (4 * count++);
+                pending = exponent;
+            }
+        }
+        if (pending != 0) {
+            result |= pending << (4 * count);
+        }
+        return result;
+    }
+
+    static int rowScore(int row) {
+        int score = 0;
+        int pending = 0;
+        for (int i = 0; i < SIZE; i++) {
+            int exponent = (row >>> (4 * i)) & 0xF;
+            if (exponent == 0) {
+                continue;
+            }
+
+            if (pending == exponent) {
+                score += 1 << Math.min(exponent + 1, MAX_EXPONENT);
+                pending = 0;
+            } else {
+                pending = exponent;
+            }
+        }
+        return score;
+    }
+
+    static int reverseRow(int row) {
+        return ((row & 0xF) << 12) | ((row & 0xF0) << 4)
+             | ((row >>> 4) & 0xF0) | ((row >>> 12) & 0xF);
+    }
+
+    private static int shift(int x, int y) {
+        return 4 * (y * SIZE + x);
+    }
+}
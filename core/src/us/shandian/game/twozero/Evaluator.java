@@ -0,0 +1,17 @@
+package us.shandian.game.twozero;
+
+/*
+ *
+ * Scores a packed board for the search: right after a move,
+ * before the new tile comes
+ *
+ */
+
+public interface Evaluator
+{
+    float evaluate(long board);
+
+    // True if evaluate only values the points still to come,
+    // the search then adds the points of the moves on the way
+    boolean needsMoveScores();
+}
@@ -0,0 +1,362 @@
+package us.shandian.game.twozero;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/*
+ *
+ * Expectimax search on packed boards
+ * The player picks the best move, while the new tile
+ * is a chance node weighted the same way as Game.addRandomTile:
+ * 90% a 2 and 10% a 4, in any empty cell
+ *
+ * A search can be given a deadline (System.nanoTime); the clock is
+ * looked at every few nodes, and once it has passed the pass stops,
+ * stores nothing more and reports it gave up
+ *
+ * Branches cut for being unlikely are searched less deep than asked,
+ * so each node is stored with the depth its shallowest branch reached
+ *
+ */
+
+public class Expectimax
+{
+    static final float PROBABILITY_TWO = 0.9f;
+    static final float PROBABILITY_FOUR = 0.1f;
+
+    // Branches less likely than this are not expanded any further
+    static final float MIN_PROBABILITY = 0.0001f;
+
+    static final float WIN_SCORE = 1000000f;
+    static final float LOSE_SCORE = -1000000f;
+
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    // Player nodes between two looks at the clock, minus one
+    static final int CHECK_MASK = (1 << 10) - 1;
+
+    int mWinExponent;
+    TranspositionTable mTable;
+    Evaluator mEvaluator;
+    boolean mMoveScores;
+
+    long mDeadline = NO_DEADLINE;
+    boolean mAborted;
+    long mNodes;
+
+    // Depth the last node searched really reached, at most the depth asked
+    int mReached;
+
+    public Expectimax(int winExponent, TranspositionTable table) {
+        this(winExponent, table, new RowHeuristic(Weights.DEFAULT));
+    }
+
+    private Expectimax(int winExponent, TranspositionTable table, Evaluator evaluator) {
+        mWinExponent = winExponent;
+        mTable = table;
+        setEvaluator(evaluator);
+    }
+
+    // A searcher of its own for one task, on the same table
+    private Expectimax fork() {
+        Expectimax fork = new Expectimax(mWinExponent, mTable, mEvaluator);
+        fork.mDeadline = mDeadline;
+        return fork;
+    }
+
+    public void setWinExponent(int winExponent) {
+        mWinExponent = winExponent;
+    }
+
+    public void setEvaluator(Evaluator evaluator) {
+        mEvaluator = evaluator;
+        mMoveScores = evaluator.needsMoveScores();
+    }
+
+    public Evaluator getEvaluator() {
+        return mEvaluator;
+    }
+
+    // System.nanoTime after which searches give up, NO_DEADLINE for never
+    public void setDeadline(long deadline) {
+        mDeadline = deadline;
+    }
+
+    // Player nodes searched since the last reset, table hits included
+    public long getNodes() {
+        return mNodes;
+    }
+
+    public void resetNodes() {
+        mNodes = 0;
+    }
+
+    // Counts a node, and tells whether the search has to give up
+    private boolean aborted() {
+        if ((++mNodes & CHECK_MASK) == 0 && System.nanoTime() > mDeadline) {
+            mAborted = true;
+        }
+        return mAborted;
+    }
+
+    // Points of a move, if the evaluator wants them
+    private float moveScore(long board, int direction) {
+        return mMoveScores ? Board.scoreMove(board, direction) : 0;
+    }
+
+    // Best move looking depth moves ahead, -1 if there is none or it ran out of time
+    public int search(long board, int depth) {
+        mAborted = false;
+        mNodes++;
+        long data = mTable.probe(board);
+        if (data != 0 && TranspositionTable.depthOf(data) >= depth) {
+            return TranspositionTable.moveOf(data);
+        }
+
+        int bestMove = -1;
+        float bestScore = Float.NEGATIVE_INFINITY;
+        int reached = depth;
+
+        for (int i = 0; i <= 3; i++) {
+            long next = Board.move(board, i);
+
+            if (next == board) {
+                continue;
+            }
+
+            float score = moveScore(board, i) + scoreMove(next, depth, 1.0f);
+            reached = Math.min(reached, mReached);
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = i;
+            }
+        }
+
+        if (mAborted) {
+            return -1;
+        }
+
+        if (bestMove != -1) {
+            mTable.store(board, reached, bestScore, bestMove);
+        }
+
+        return bestMove;
+    }
+
+    /*
+     *
+     * Same as search(), but every root move and every tile of the
+     * first chance layer is searched as its own task on the executor
+     * All the tasks share the transposition table, but each has its own
+     * searcher so nothing else is written by two threads
+     * If any task runs out of time the whole pass gives up and returns -1
+     *
+     */
+    public int search(long board, final int depth, ExecutorService executor)
+            throws InterruptedException {
+        if (depth == 0) {
+            return search(board, depth);
+        }
+
+        mAborted = false;
+        mNodes++;
+        long data = mTable.probe(board);
+        if (data != 0 && TranspositionTable.depthOf(data) >= depth) {
+            return TranspositionTable.moveOf(data);
+        }
+
+        List<Callable<Float>> tasks = new ArrayList<Callable<Float>>();
+        List<Expectimax> forks = new ArrayList<Expectimax>();
+        int[] owners = new int[4 * Board.SIZE * Board.SIZE * 2];
+        float[] scores = new float[4];
+        int[] empties = new int[4];
+
+        for (int i = 0; i <= 3; i++) {
+            long next = Board.move(board, i);
+
+            if (next == board) {
+                scores[i] = Float.NEGATIVE_INFINITY;
+                continue;
+            }
+
+            if (Board.maxExponent(next) >= mWinExponent) {
+                scores[i] = moveScore(board, i) + WIN_SCORE;
+                continue;
+            }
+
+            int empty = Board.countEmpty(next);
+            empties[i] = empty;
+
+            for (int j = 0; j < Board.SIZE * Board.SIZE; j++) {
+                if (((next >>> (4 * j)) & 0xF) != 0) {
+                    continue;
+                }
+
+                owners[tasks.size()] = i;
+                tasks.add(newSpawnTask(forks, next | (1L << (4 * j)), depth - 1,
+                        PROBABILITY_TWO / empty, PROBABILITY_TWO));
+                owners[tasks.size()] = i;
+                tasks.add(newSpawnTask(forks, next | (2L << (4 * j)), depth - 1,
+                        PROBABILITY_FOUR / empty, PROBABILITY_FOUR));
+            }
+        }
+
+        List<Future<Float>> results = executor.invokeAll(tasks);
+        int reached = depth;
+        for (int k = 0; k < results.size(); k++) {
+            float score;
+            try {
+                score = results.get(k).get();
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+
+            mNodes += forks.get(k).mNodes;
+            reached = Math.min(reached, forks.get(k).mReached + 1);
+            if (Float.isNaN(score)) {
+                // Ran out of time
+                mAborted = true;
+            }
+
+            scores[owners[k]] += score;
+        }
+
+        if (mAborted) {
+            return -1;
+        }
+
+        int bestMove = -1;
+        float bestScore = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i <= 3; i++) {
+            if (empties[i] > 0) {
+                scores[i] = moveScore(board, i) + scores[i] / empties[i];
+            }
+            if (scores[i] > bestScore) {
+                bestScore = scores[i];
+                bestMove = i;
+            }
+        }
+
+        if (bestMove != -1) {
+            mTable.store(board, reached, bestScore, bestMove);
+        }
+
+        return bestMove;
+    }
+
+    // Weighted score of one tile of the first chance layer, NaN if too late
+    private Callable<Float> newSpawnTask(List<Expectimax> forks, final long board, final int depth,
+            final float probability, final float weight) {
+        final Expectimax fork = fork();
+        forks.add(fork);
+        return new Callable<Float>() {
+            @Override
+            public Float call() {
+                if (System.nanoTime() > fork.mDeadline) {
+                    return Float.NaN;
+                }
+                float score = fork.searchMove(board, depth, probability);
+                return fork.mAborted ? Float.NaN : weight * score;
+            }
+        };
+    }
+
+    /*
+     *
+     * Searches every tile that may come after a move, before it comes
+     * The best reply to each of them, depth deep, is left in the table
+     * Chance weights start from 1 for a 2 (and a ninth of that for a 4),
+     * as they would if each board were searched on its own
+     * NaN if the deadline came first
+     *
+     */
+    public float ponder(long afterstate, int depth) {
+        mAborted = false;
+        float score = scoreMove(afterstate, depth + 1, Board.countEmpty(afterstate) / PROBABILITY_TWO);
+        return mAborted ? Float.NaN : score;
+    }
+
+    // Score of the board right after a move, before the new tile comes
+    private float scoreMove(long board, int depth, float probability) {
+        if (Board.maxExponent(board) >= mWinExponent) {
+            mReached = depth;
+            return WIN_SCORE;
+        }
+
+        return searchSpawn(board, depth, probability);
+    }
+
+    // Chance node: average over every tile that could appear
+    private float searchSpawn(long board, int depth, float probability) {
+        if (depth == 0 || probability < MIN_PROBABILITY) {
+            // A cut branch reached no deeper than a leaf
+            mReached = 0;
+            return mEvaluator.evaluate(board);
+        }
+
+        int empty = Board.countEmpty(board);
+        float probabilityTwo = probability * PROBABILITY_TWO / empty;
+        float probabilityFour = probability * PROBABILITY_FOUR / empty;
+        float total = 0;
+        int reached = depth - 1;
+
+        for (int i = 0; i < Board.SIZE * Board.SIZE; i++) {
+            if (((board >>> (4 * i)) & 0xF) != 0) {
+                continue;
+            }
+
+            total += PROBABILITY_TWO * searchMove(board | (1L << (4 * i)), depth - 1, probabilityTwo);
+            reached = Math.min(reached, mReached);
+            total += PROBABILITY_FOUR * searchMove(board | (2L << (4 * i)), depth - 1, probabilityFour);
+            reached = Math.min(reached, mReached);
+        }
+
+        mReached = reached + 1;
+        return total / empty;
+    }
+
+    // Max node: the player takes the best move
+    private float searchMove(long board, int depth, float probability) {
+        if (aborted()) {
+            return 0;
+        }
+
+        long data = mTable.probe(board);
+        if (data != 0 && TranspositionTable.depthOf(data) >= depth) {
+            mReached = depth;
+            return TranspositionTable.scoreOf(data);
+        }
+
+        float bestScore = LOSE_SCORE;
+        int bestMove = -1;
+        int reached = depth;
+
+        for (int i = 0; i <= 3; i++) {
+            long next = Board.move(board, i);
+
+            if (next == board) {
+                continue;
+            }
+
+            float score = moveScore(board, i) + scoreMove(next, depth, probability);
+            reached = Math.min(reached, mReached);
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = i;
+            }
+        }
+
+        // Whatever was found after the deadline is not a score
+        if (mAborted) {
+            return 0;
+        }
+
+        mTable.store(board, reached, bestScore, bestMove);
+        mReached = reached;
+        return bestScore;
+    }
+}
@@ -0,0 +1,475 @@
+package us.shandian.game.twozero;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/*
+ *
+ * The rules of the game: board, moves, new tiles, score, win and lose
+ * It knows nothing about Android, whatever happens is reported
+ * to the GameListener if there is one
+ *
+ */
+
+public class Game {
+
+    public Grid grid;
+    int numSquaresX = 4;
+    int numSquaresY = 4;
+    final int startTiles = 2;
+
+    // log2 of the tile that wins the game, 2^31 does not fit an int value
+    int goalExponent;
+
+    // Add a random tile after every move
+    boolean spawnAfterMove = true;
+
+    long score = 0;
+    boolean won = false;
+    boolean lose = false;
+
+    // The AI made moves in this game, it is not the player's score alone
+    boolean aiPlayed = false;
+
+    // Boards undo goes back to, made at the first move
+    History history;
+    int historyDepth = History.DEFAULT_DEPTH;
+
+    GameListener mListener;
+
+    // Where a wide board's move goes before it is taken
+    int[] mNextRows;
+
+    // Picks where new tiles go and what they are, a SplitMix of seed
+    // for a new game, so its moves are all it takes to play it again
+    Random mRandom = new Random();
+    long seed;
+    boolean replayable = false;
+
+    // Where the seeds of new games come from
+    Random mSeeds = new Random();
+
+    public Game(int numSquaresX, int numSquaresY, int goalExponent) {
+        if (goalExponent < 1 || goalExponent > WideBoard.MAX_EXPONENT) {
+            throw new IllegalArgumentException("No 2^" + goalExponent + " tile to win with");
+        }
+        this.numSquaresX = numSquaresX;
+        this.numSquaresY = numSquaresY;
+        this.goalExponent = goalExponent;
+    }
+
+    public void setListener(GameListener listener) {
+        mListener = listener;
+    }
+
+    // A seeded one makes the same games again
+    public void setRandom(Random random) {
+        mSeeds = random;
+    }
+
+    public void newGame() {
+        newGame(mSeeds.nextLong());
+    }
+
+    // The same seed and moves give the same game, see Replay
+    public void newGame(long seed) {
+        this.seed = seed;
+        mRandom = new SplitMix(seed);
+        replayable = true;
+        grid = new Grid(numSquaresX, numSquaresY);
+        score = 0;
+        won = false;
+        lose = false;
+        aiPlayed = false;
+        if (history != null) {
+            history.clear();
+        }
+        addStartTiles();
+    }
+
+    // How many moves undo can go back, the history is started again
+    public void setHistoryDepth(int depth) {
+        historyDepth = depth;
+        history = null;
+    }
+
+    public History getHistory() {
+        if (history == null || !history.fits(numSquaresX, numSquaresY)) {
+            history = new History(numSquaresX, numSquaresY, historyDepth);
+        }
+        return history;
+    }
+
+    public void addStartTiles() {
+        for (int xx = 0; xx < startTiles; xx++) {
+            this.addRandomTile();
+        }
+    }
+
+    public void addRandomTile() {
+        if (grid.isCellsAvailable()) {
+            addRandomTile(grid.randomAvailableCell(mRandom));
+        }
+    }
+
+    public void addRandomTile(Cell cell) {
+        int value = mRandom.nextFloat() < 0.9f ? 2 : 4;
+        Tile tile = new Tile(cell, value);
+        grid.insertTile(tile);
+        if (mListener != null) {
+            mListener.onTileSpawned(tile.getX(), tile.getY(), value);
+        }
+    }
+
+    public void prepareTiles() {
+        for (Tile[] array : grid.field) {
+            for (Tile tile : array) {
+                if (grid.isCellOccupied(tile)) {
+                    tile.setMergedFrom(null);
+                    tile.savePosition();
+                }
+            }
+        }
+    }
+
+    public void moveTile(Tile tile, Cell cell) {
+        grid.field[tile.getX()][tile.getY()] = null;
+        grid.field[cell.getX()][cell.getY()] = tile;
+        tile.updatePosition(cell);
+    }
+
+    // Not once the game is over
+    public boolean canUndo() {
+        return !won && !lose && history != null && history.canUndo();
+    }
+
+    public boolean canRedo() {
+        return !won && !lose && history != null && history.canRedo();
+    }
+
+    // Back one move, false if there is none to go back
+    public boolean revertState() {
+        return getHistory().undo(this);
+    }
+
+    // Forth again one move undone
+    public boolean redoState() {
+        return getHistory().redo(this);
+    }
+
+    public boolean move (int direction) {
+        // 0: up, 1: right, 2: down, 3: left
+        if (lose || won) {
+            return false;
+        }
+
+        History history = getHistory();
+        history.capture(this);
+
+        boolean moved;
+        if (grid.packed) {
+            moved = moveBoard(direction);
+        } else if (grid.wide != null) {
+            moved = moveWide(direction);
+        } else {
+            moved = moveTiles(direction);
+        }
+
+        if (moved) {
+            history.commit();
+
+            if (spawnAfterMove) {
+                addRandomTile();
+            }
+
+            if (!movesAvailable()) {
+                lose = true;
+                endGame();
+            }
+
+        }
+
+        return moved;
+    }
+
+    // Move on the packed board, the tiles are rebuilt from the result
+    private boolean moveBoard(int direction) {
+        long board = grid.board;
+        long next = Board.move(board, direction);
+
+        if (next == board) {
+            return false;
+        }
+
+        if (mListener != null) {
+            reportMove(direction);
+        }
+
+        grid.setBoard(next);
+
+        // Update the score
+        score = score + Board.scoreMove(board, direction);
+
+        // The mighty max tile
+        if (Board.maxExponent(next) >= goalExponent) {
+            won = true;
+            endGame();
+        }
+
+        return true;
+    }
+
+    // The same on the rows of a wide board
+    private boolean moveWide(int direction) {
+        if (mNextRows == null || mNextRows.length != numSquaresY) {
+            mNextRows = new int[numSquaresY];
+        }
+        WideBoard wide = grid.wide;
+        long points = wide.move(grid.rows, mNextRows, direction);
+
+        if (points < 0) {
+            return false;
+        }
+
+        if (mListener != null) {
+            reportMove(direction);
+        }
+
+        grid.setRows(mNextRows);
+
+        // Update the score
+        score = score + points;
+
+        // The mighty max tile
+        if (wide.maxExponent(grid.rows) >= goalExponent) {
+            won = true;
+            endGame();
+        }
+
+        return true;
+    }
+
+    // Replay the slide of every line of the tiles, before they are
+    // rebuilt from the packed board, to tell where each tile goes
+    private void reportMove(int direction) {
+        Cell vector = getVector(direction);
+        boolean vertical = vector.getX() == 0;
+        boolean reversed = vector.getX() + vector.getY() > 0;
+        int lines = vertical ? numSquaresX : numSquaresY;
+        int length = vertical ? numSquaresY : numSquaresX;
+
+        for (int line = 0; line < lines; line++) {
+            int target = -1;
+            int targetExponent = 0;
+            boolean targetMerged = false;
+
+            // Walk from the edge the tiles are sliding towards
+            for (int i = 0; i < length; i++) {
+                int step = reversed ? length - 1 - i : i;
+                int xx = vertical ? line : step;
+                int yy = vertical ? step : line;
+                Tile tile = grid.field[xx][yy];
+
+                if (tile == null) {
+                    continue;
+                }
+                int exponent = Board.exponentOf(tile.getValue());
+
+                boolean merge = target >= 0 && !targetMerged && targetExponent == exponent;
+                if (merge) {
+                    targetMerged = true;
+                } else {
+                    target++;
+                    targetExponent = exponent;
+                    targetMerged = false;
+                }
+
+                int targetStep = reversed ? length - 1 - target : target;
+                int targetX = vertical ? line : targetStep;
+                int targetY = vertical ? targetStep : line;
+
+                mListener.onTileMoved(xx, yy, targetX, targetY, merge);
+                if (merge) {
+                    mListener.onTileMerged(targetX, targetY, 2 << exponent);
+                }
+            }
+        }
+    }
+
+    private boolean moveTiles(int direction) {
+        Cell vector = getVector(direction);
+        List<Integer> traversalsX = buildTraversalsX(vector);
+        List<Integer> traversalsY = buildTraversalsY(vector);
+        boolean moved = false;
+
+        prepareTiles();
+
+        for (int xx: traversalsX) {
+            for (int yy: traversalsY) {
+                Cell cell = new Cell(xx, yy);
+                Tile tile = grid.getCellContent(cell);
+
+                if (tile != null) {
+                    Cell[] positions = findFarthestPosition(cell, vector);
+                    Tile next = grid.getCellContent(positions[1]);
+
+                    if (next != null && next.getValue() == tile.getValue() && next.getMergedFrom() == null) {
+                        Tile merged = new Tile(positions[1], tile.getValue() * 2);
+                        Tile[] temp = {tile, next};
+                        merged.setMergedFrom(temp);
+
+                        grid.insertTile(merged);
+                        grid.removeTile(tile);
+
+                        // Converge the two tiles' positions
+                        tile.updatePosition(positions[1]);
+
+                        if (mListener != null) {
+                            mListener.onTileMoved(xx, yy, merged.getX(), merged.getY(), true);
+                            mListener.onTileMerged(merged.getX(), merged.getY(), merged.getValue());
+                        }
+
+                        // Update the score
+                        score = score + merged.getValue();
+
+                        // The mighty max tile
+                        if (Board.exponentOf(merged.getValue()) >= goalExponent) {
+                            won = true;
+                            endGame();
+                        }
+                    } else {
+                        moveTile(tile, positions[0]);
+                        if (mListener != null) {
+                            mListener.onTileMoved(xx, yy, positions[0].getX(), positions[0].getY(), false);
+                        }
+                    }
+
+                    if (!positionsEqual(cell, tile)) {
+                        moved = true;
+                    }
+                }
+            }
+        }
+
+        return moved;
+    }
+
+    public void endGame() {
+        if (mListener != null) {
+            if (won) {
+                mListener.onGameWon();
+            } else {
+                mListener.onGameLost();
+            }
+        }
+    }
+
+    public Cell getVector(int direction) {
+        Cell[] map = {
+                new Cell(0, -1), // up
+                new Cell(1, 0),  // right
+                new Cell(0, 1),  // down
+                new Cell(-1, 0)  // left
+        };
+        return map[direction];
+    }
+
+    public List<Integer> buildTraversalsX(Cell vector) {
+        List<Integer> traversals = new ArrayList<Integer>();
+
+        for (int xx = 0; xx < numSquaresX; xx++) {
+            traversals.add(xx);
+        }
+        if (vector.getX() == 1) {
+            Collections.reverse(traversals);
+        }
+
+       return traversals;
+    }
+
+    public List<Integer> buildTraversalsY(Cell vector) {
+        List<Integer> traversals = new ArrayList<Integer>();
+
+        for (int xx = 0; xx <numSquaresY; xx++) {
+            traversals.add(xx);
+        }
+        if (vector.getY() == 1) {
+            Collections.reverse(traversals);
+        }
+
+        return traversals;
+    }
+
+    public Cell[] findFarthestPosition(Cell cell, Cell vector) {
+        Cell previous;
+        Cell nextCell = new Cell(cell.getX(), cell.getY());
+        do {
+            previous = nextCell;
+            nextCell = new Cell(previous.getX() + vector.getX(),
+                    previous.getY() + vector.getY());
+        } while (grid.isCellWithinBounds(nextCell) && grid.isCellAvailable(nextCell));
+
+        Cell[] answer = {previous, nextCell};
+        return answer;
+    }
+    public boolean movesAvailable() {
+        if (grid.packed) {
+            return !Board.isGameOver(grid.board);
+        }
+        if (grid.wide != null) {
+            return !grid.wide.isGameOver(grid.rows);
+        }
+        return grid.isCellsAvailable() || tileMatchesAvailable();
+    }
+    public boolean tileMatchesAvailable() {
+        Tile tile;
+
+        for (int xx = 0; xx < numSquaresX; xx++) {
+            for (int yy = 0; yy < numSquaresY; yy++) {
+                tile = grid.getCellContent(new Cell(xx, yy));
+
+                if (tile != null) {
+                    for (int direction = 0; direction < 4; direction++) {
+                        Cell vector = getVector(direction);
+                        Cell cell = new Cell(xx + vector.getX(), yy + vector.getY());
+
+                        Tile other = grid.getCellContent(cell);
+
+                        if (other != null && other.getValue() == tile.getValue()) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    public boolean positionsEqual(Cell first, Cell second) {
+        return first.getX() == second.getX() && first.getY() == second.getY();
+    }
+
+    // Only for emulation: no listener and no new tiles after moves
+    @Override
+    public Game clone() {
+        Game newGame = new Game(numSquaresX, numSquaresY, goalExponent);
+
+        newGame.grid = grid.clone();
+        newGame.score = score;
+        newGame.spawnAfterMove = false;
+
+        return newGame;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    // Started from a seed, and its new tiles still come from it
+    public boolean isReplayable() {
+        return replayable && mRandom instanceof SplitMix;
+    }
+}
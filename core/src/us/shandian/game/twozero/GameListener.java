@@ -0,0 +1,22 @@
+package us.shandian.game.twozero;
+
+/*
+ *
+ * Everything a Game reports while it is played
+ * Used by the app to start its animations
+ *
+ */
+
+public interface GameListener
+{
+    void onTileSpawned(int x, int y, int value);
+
+    // merged: the tile ends up merged into the one at (toX, toY)
+    void onTileMoved(int fromX, int fromY, int toX, int toY, boolean merged);
+
+    void onTileMerged(int x, int y, int value);
+
+    void onGameWon();
+
+    void onGameLost();
+}
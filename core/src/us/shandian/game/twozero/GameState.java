@@ -0,0 +1,170 @@
+package us.shandian.game.twozero;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/*
+ *
+ * The whole game as a few bytes, and back
+ *   int "2048", byte version
+ *   byte variety, byte width, byte height
+ *   long score, byte won | lose | aiPlayed | replayable
+ *   long seed, long state of the game's SplitMix, see Replay
+ *   the board: a long when it is packed, else one exponent byte
+ *   per cell (x * height + y)
+ *   the history: short boards to undo, short boards to redo, then
+ *   each of them as History keeps it and its score, a long each
+ * Version 1 had a lastScore after the score, no history but one
+ * board to undo (canRevert) after the board, and is still read
+ * Neither version 1 nor 2 had the seed, those games cannot be replayed
+ * A saved game of another variety or size is refused
+ * Written from a copy, so it can be made on the game's thread
+ * and written out on another, see GameSaver
+ *
+ */
+
+public class GameState
+{
+    static final int MAGIC = 0x32303438;
+    static final int VERSION = 3;
+
+    static final int WON = 1;
+    static final int LOSE = 2;
+    // Version 1 only
+    static final int CAN_REVERT = 4;
+    static final int AI_PLAYED = 8;
+    static final int REPLAYABLE = 16;
+
+    // The largest tile an int holds
+    static final int MAX_EXPONENT = 30;
+
+    int mVariety;
+    int mWidth;
+    int mHeight;
+    long mScore;
+    int mFlags;
+    long mSeed;
+    long mState;
+    // The board as History packs it, and the boards to undo and redo
+    long[] mBoard;
+    History mHistory;
+
+    // On the game's thread: a copy of what is saved, to be written on another
+    // Only arrays copied, and reused, unless the size or the history grew
+    public void copy(Game game, int variety) {
+        if (mHistory == null || !mHistory.fits(game.numSquaresX, game.numSquaresY)) {
+            mHistory = new History(game.numSquaresX, game.numSquaresY, 0);
+            mBoard = new long[mHistory.mWords];
+        }
+        mVariety = variety;
+        mWidth = game.numSquaresX;
+        mHeight = game.numSquaresY;
+        mScore = game.score;
+        boolean replayable = game.isReplayable();
+        mFlags = (game.won ? WON : 0) | (game.lose ? LOSE : 0) | (game.aiPlayed ? AI_PLAYED : 0)
+                | (replayable ? REPLAYABLE : 0);
+        mSeed = game.seed;
+        mState = replayable ? ((SplitMix) game.mRandom).getState() : 0;
+        mHistory.encode(game.grid, mBoard, 0);
+        mHistory.copy(game.getHistory());
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(mVariety);
+        out.writeByte(mWidth);
+        out.writeByte(mHeight);
+        out.writeLong(mScore);
+        out.writeByte(mFlags);
+        out.writeLong(mSeed);
+        out.writeLong(mState);
+
+        if (mHistory.mPacked) {
+            out.writeLong(mBoard[0]);
+        } else {
+            for (int cell = 0; cell < mWidth * mHeight; cell++) {
+                long word = mBoard[cell / History.PER_WORD];
+                out.writeByte((int) (word >>> (cell % History.PER_WORD * History.BITS)) & History.MASK);
+            }
+        }
+        mHistory.write(out);
+    }
+
+    // False if it is not a game of this variety and size, which is then left as it was
+    public static boolean read(Game game, int variety, DataInput in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a saved game");
+        }
+        int version = in.readUnsignedByte();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unknown saved game version " + version);
+        }
+
+        int savedVariety = in.readUnsignedByte();
+        int width = in.readUnsignedByte();
+        int height = in.readUnsignedByte();
+        if (savedVariety != variety || width != game.numSquaresX || height != game.numSquaresY) {
+            return false;
+        }
+
+        long score = in.readLong();
+        long lastScore = version == 1 ? in.readLong() : 0;
+        int flags = in.readUnsignedByte();
+        long seed = version >= 3 ? in.readLong() : 0;
+        long state = version >= 3 ? in.readLong() : 0;
+
+        Grid grid = readGrid(width, height, in);
+        History history = new History(width, height, game.historyDepth);
+        if (version == 1) {
+            Grid last = readGrid(width, height, in);
+            if ((flags & CAN_REVERT) != 0) {
+                history.push(last, lastScore);
+            }
+        } else {
+            history.read(in);
+        }
+
+        game.grid = grid;
+        game.history = history;
+        game.score = score;
+        game.won = (flags & WON) != 0;
+        game.lose = (flags & LOSE) != 0;
+        game.aiPlayed = (flags & AI_PLAYED) != 0;
+        game.seed = seed;
+        game.replayable = (flags & REPLAYABLE) != 0;
+        if (game.replayable) {
+            // Where its new tiles left off
+            SplitMix random = new SplitMix(seed);
+            random.setState(state);
+            game.mRandom = random;
+        }
+        return true;
+    }
+
+    private static Grid readGrid(int width, int height, DataInput in) throws IOException {
+        Grid grid = new Grid(width, height);
+        if (grid.packed) {
+            grid.setBoard(in.readLong());
+        } else {
+            readField(grid.field, in);
+            if (grid.wide != null) {
+                grid.wide.fromGrid(grid, grid.rows);
+            }
+        }
+        return grid;
+    }
+
+    private static void readField(Tile[][] field, DataInput in) throws IOException {
+        for (int xx = 0; xx < field.length; xx++) {
+            for (int yy = 0; yy < field[xx].length; yy++) {
+                int exponent = in.readUnsignedByte();
+                if (exponent > MAX_EXPONENT) {
+                    throw new IOException("Bad tile 2^" + exponent);
+                }
+                field[xx][yy] = exponent == 0 ? null : new Tile(xx, yy, 1 << exponent);
+            }
+        }
+    }
+}
@@ -1,32 +1,60 @@
 package us.shandian.game.twozero;
 
 import java.util.ArrayList;
+import java.util.Random;
 
 public class Grid {
 
     public Tile[][] field;
-    public Tile[][] lastField;
-    public boolean canRevert = false;
+    
+    // 4x4 boards are also kept packed into a long
+    // field is then just a view of it for drawing
+    public long board = 0;
+    public boolean packed;
+
+    // Bigger boards up to 6x6 are kept as rows, see WideBoard
+    public int[] rows;
+    public WideBoard wide;
     
     int sizeX, sizeY;
 
     public Grid(int sizeX, int sizeY) {
         this.sizeX = sizeX;
         this.sizeY = sizeY;
+        packed = Board.fits(sizeX, sizeY);
+        if (WideBoard.fits(sizeX, sizeY)) {
+            wide = new WideBoard(sizeX, sizeY);
+            rows = new int[sizeY];
+        }
         field = new Tile[sizeX][sizeY];
-        lastField = new Tile[sizeX][sizeY];
         for (int xx = 0; xx < field.length; xx++) {
             for (int yy = 0; yy < field[0].length; yy++) {
                 field[xx][yy] = null;
-                lastField[xx][yy] = null;
             }
         }
     }
 
-    public Cell randomAvailableCell() {
+    public Cell randomAvailableCell(Random random) {
+       if (packed) {
+           int empty = Board.countEmpty(board);
+           if (empty >= 1) {
+               int index = Board.nthEmpty(board, random.nextInt(empty));
+               return new Cell(index % Board.SIZE, index / Board.SIZE);
+           }
+           return null;
+       }
+       if (wide != null) {
+           int empty = wide.countEmpty(rows);
+           if (empty >= 1) {
+               int index = wide.nthEmpty(rows, random.nextInt(empty));
+               return new Cell(index / sizeY, index % sizeY);
+           }
+           return null;
+       }
+       
        ArrayList<Cell> availableCells = getAvailableCells();
        if (availableCells.size() >= 1) {
-           return availableCells.get((int) Math.floor(Math.random() * availableCells.size()));
+           return availableCells.get(random.nextInt(availableCells.size()));
        }
        return null;
     }
@@ -44,6 +72,12 @@ public class Grid {
     }
 
     public boolean isCellsAvailable() {
+        if (packed) {
+            return Board.countEmpty(board) >= 1;
+        }
+        if (wide != null) {
+            return wide.countEmpty(rows) >= 1;
+        }
         return (getAvailableCells().size() >= 1);
     }
 
@@ -83,36 +117,47 @@ public class Grid {
 
     public void insertTile(Tile tile) {
         field[tile.getX()][tile.getY()] = tile;
+        if (packed) {
+            board = Board.setExponent(board, tile.getX(), tile.getY(), Board.exponentOf(tile.getValue()));
+        } else if (wide != null) {
+            WideBoard.setExponent(rows, tile.getX(), tile.getY(), Board.exponentOf(tile.getValue()));
+        }
     }
 
     public void removeTile(Tile tile) {
         field[tile.getX()][tile.getY()] = null;
+        if (packed) {
+            board = Board.setExponent(board, tile.getX(), tile.getY(), 0);
+        } else if (wide != null) {
+            WideBoard.setExponent(rows, tile.getX(), tile.getY(), 0);
+        }
     }
     
-    public void saveTiles() {
-        canRevert = true;
-        
-        lastField = new Tile[sizeX][sizeY];
-        for (int xx = 0; xx < field.length; xx++) {
-            for (int yy = 0; yy < field.length; yy++) {
-                if (field[xx][yy] == null) {
-                    lastField[xx][yy] = null;
+    // Replace the packed board and rebuild the tile view from it
+    public void setBoard(long board) {
+        this.board = board;
+        for (int xx = 0; xx < sizeX; xx++) {
+            for (int yy = 0; yy < sizeY; yy++) {
+                int value = Board.getValue(board, xx, yy);
+                if (value == 0) {
+                    field[xx][yy] = null;
                 } else {
-                    lastField[xx][yy] = new Tile(xx, yy, field[xx][yy].getValue());
+                    field[xx][yy] = new Tile(xx, yy, value);
                 }
             }
         }
     }
     
-    public void revertTiles() {
-        canRevert = false;
-        
-        for (int xx = 0; xx < lastField.length; xx++) {
-            for (int yy = 0; yy < lastField.length; yy++) {
-                if (lastField[xx][yy] == null) {
+    // Same for the rows of a wide board, copied
+    public void setRows(int[] rows) {
+        System.arraycopy(rows, 0, this.rows, 0, sizeY);
+        for (int xx = 0; xx < sizeX; xx++) {
+            for (int yy = 0; yy < sizeY; yy++) {
+                int exponent = WideBoard.getExponent(rows, xx, yy);
+                if (exponent == 0) {
                     field[xx][yy] = null;
                 } else {
-                    field[xx][yy] = new Tile(xx, yy, lastField[xx][yy].getValue());
+                    field[xx][yy] = new Tile(xx, yy, 1 << exponent);
                 }
             }
         }
@@ -120,6 +165,17 @@ public class Grid {
     
     @Override
     public Grid clone() {
+        if (packed) {
+            Grid newGrid = new Grid(sizeX, sizeY);
+            newGrid.setBoard(board);
+            return newGrid;
+        }
+        if (wide != null) {
+            Grid newGrid = new Grid(sizeX, sizeY);
+            newGrid.setRows(rows);
+            return newGrid;
+        }
+        
         Tile[][] newField = new Tile[sizeX][sizeY];
         for (int xx = 0; xx < field.length; xx++) {
             for (int yy = 0; yy < field.length; yy++) {
@@ -0,0 +1,273 @@
+package us.shandian.game.twozero;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/*
+ *
+ * The boards undo goes back to, and redo forth again, with their scores
+ * A ring of packed boards: a Board long when the board fits one,
+ * else exponents of 5 bits, 12 to a long, in field order, taken from
+ * the WideBoard rows when there are some
+ * Once full the oldest board is written over
+ * Nothing is allocated per move, the ring only grows by doubling
+ * until it is as deep as asked
+ *
+ */
+
+public class History
+{
+    public static final int DEFAULT_DEPTH = 1000;
+
+    static final int INITIAL_CAPACITY = 16;
+
+    static final int BITS = 5;
+    static final int PER_WORD = 12;
+    static final int MASK = (1 << BITS) - 1;
+
+    final int mWidth;
+    final int mHeight;
+    final boolean mPacked;
+    // Longs per board
+    final int mWords;
+    int mDepth;
+
+    // [slot * mWords + word], [slot]
+    long[] mBoards = new long[0];
+    long[] mScores = new long[0];
+    int mCapacity = 0;
+
+    // Slot of the oldest board, boards undo can go back to, then redo forth to
+    int mStart = 0;
+    int mCount = 0;
+    int mRedo = 0;
+
+    // The game before a move, kept if it moves
+    final long[] mCaptured;
+    long mCapturedScore;
+    final long[] mCurrent;
+
+    public History(int width, int height, int depth) {
+        mWidth = width;
+        mHeight = height;
+        mPacked = Board.fits(width, height);
+        mWords = mPacked ? 1 : (width * height + PER_WORD - 1) / PER_WORD;
+        mDepth = depth;
+        mCaptured = new long[mWords];
+        mCurrent = new long[mWords];
+    }
+
+    public boolean fits(int width, int height) {
+        return width == mWidth && height == mHeight;
+    }
+
+    public int getDepth() {
+        return mDepth;
+    }
+
+    public int getUndoCount() {
+        return mCount;
+    }
+
+    public int getRedoCount() {
+        return mRedo;
+    }
+
+    public boolean canUndo() {
+        return mCount > 0;
+    }
+
+    public boolean canRedo() {
+        return mRedo > 0;
+    }
+
+    public void clear() {
+        mStart = 0;
+        mCount = 0;
+        mRedo = 0;
+    }
+
+    // The game as it is before a move, which may not move anything
+    public void capture(Game game) {
+        encode(game.grid, mCaptured, 0);
+        mCapturedScore = game.score;
+    }
+
+    // It moved, undo can go back to what was captured; nothing to redo any more
+    public void commit() {
+        push(mCaptured, mCapturedScore);
+    }
+
+    public void push(Grid grid, long score) {
+        encode(grid, mCaptured, 0);
+        push(mCaptured, score);
+    }
+
+    // Puts the game back one move, and keeps it as it was for redo
+    public boolean undo(Game game) {
+        if (mCount == 0) {
+            return false;
+        }
+        swap(game, (mStart + mCount - 1) % mCapacity);
+        mCount--;
+        mRedo++;
+        return true;
+    }
+
+    public boolean redo(Game game) {
+        if (mRedo == 0) {
+            return false;
+        }
+        swap(game, (mStart + mCount) % mCapacity);
+        mCount++;
+        mRedo--;
+        return true;
+    }
+
+    private void swap(Game game, int slot) {
+        encode(game.grid, mCurrent, 0);
+        long score = game.score;
+
+        decode(mBoards, slot * mWords, game.grid);
+        game.score = mScores[slot];
+
+        System.arraycopy(mCurrent, 0, mBoards, slot * mWords, mWords);
+        mScores[slot] = score;
+    }
+
+    private void push(long[] words, long score) {
+        mRedo = 0;
+        if (mDepth == 0) {
+            return;
+        }
+        if (mCount == mCapacity && mCapacity < mDepth) {
+            grow(Math.min(Math.max(INITIAL_CAPACITY, mCapacity * 2), mDepth));
+        }
+
+        int slot;
+        if (mCount == mCapacity) {
+            // Full, the oldest goes
+            slot = mStart;
+            mStart = (mStart + 1) % mCapacity;
+        } else {
+            slot = (mStart + mCount) % mCapacity;
+            mCount++;
+        }
+        System.arraycopy(words, 0, mBoards, slot * mWords, mWords);
+        mScores[slot] = score;
+    }
+
+    // Boards to redo are kept as well, the oldest comes first after it
+    private void grow(int capacity) {
+        long[] boards = new long[capacity * mWords];
+        long[] scores = new long[capacity];
+        int kept = Math.min(mCount + mRedo, capacity);
+        for (int i = 0; i < kept; i++) {
+            int slot = (mStart + i) % mCapacity;
+            System.arraycopy(mBoards, slot * mWords, boards, i * mWords, mWords);
+            scores[i] = mScores[slot];
+        }
+        mRedo = kept - mCount;
+        mBoards = boards;
+        mScores = scores;
+        mCapacity = capacity;
+        mStart = 0;
+    }
+
+    void encode(Grid grid, long[] words, int offset) {
+        if (mPacked) {
+            words[offset] = grid.board;
+            return;
+        }
+
+        for (int i = 0; i < mWords; i++) {
+            words[offset + i] = 0;
+        }
+        for (int xx = 0; xx < mWidth; xx++) {
+            for (int yy = 0; yy < mHeight; yy++) {
+                long exponent;
+                if (grid.wide != null) {
+                    exponent = WideBoard.getExponent(grid.rows, xx, yy);
+                } else {
+                    Tile tile = grid.field[xx][yy];
+                    exponent = tile == null ? 0 : Board.exponentOf(tile.getValue());
+                }
+                int cell = xx * mHeight + yy;
+                words[offset + cell / PER_WORD] |= exponent << (cell % PER_WORD * BITS);
+            }
+        }
+    }
+
+    void decode(long[] words, int offset, Grid grid) {
+        if (mPacked) {
+            grid.setBoard(words[offset]);
+            return;
+        }
+
+        for (int xx = 0; xx < mWidth; xx++) {
+            for (int yy = 0; yy < mHeight; yy++) {
+                int cell = xx * mHeight + yy;
+                int exponent = (int) (words[offset + cell / PER_WORD] >>> (cell % PER_WORD * BITS)) & MASK;
+                grid.field[xx][yy] = exponent == 0 ? null : new Tile(xx, yy, 1 << exponent);
+                if (grid.wide != null) {
+                    WideBoard.setExponent(grid.rows, xx, yy, exponent);
+                }
+            }
+        }
+    }
+
+    // The same boards as from, in arrays kept from the last copy when they are big enough
+    void copy(History from) {
+        int length = from.mCapacity * mWords;
+        if (mBoards.length < length) {
+            mBoards = new long[length];
+            mScores = new long[from.mCapacity];
+        }
+        System.arraycopy(from.mBoards, 0, mBoards, 0, length);
+        System.arraycopy(from.mScores, 0, mScores, 0, from.mCapacity);
+        mCapacity = from.mCapacity;
+        mDepth = from.mDepth;
+        mStart = from.mStart;
+        mCount = from.mCount;
+        mRedo = from.mRedo;
+    }
+
+    // Boards to undo from the oldest, then to redo from the nearest, see GameState
+    void write(DataOutput out) throws IOException {
+        out.writeShort(mCount);
+        out.writeShort(mRedo);
+        for (int i = 0; i < mCount + mRedo; i++) {
+            int slot = (mStart + i) % mCapacity;
+            for (int word = 0; word < mWords; word++) {
+                out.writeLong(mBoards[slot * mWords + word]);
+            }
+            out.writeLong(mScores[slot]);
+        }
+    }
+
+    // More than the depth holds loses the oldest to undo, then the farthest to redo
+    void read(DataInput in) throws IOException {
+        clear();
+        int count = in.readUnsignedShort();
+        int redo = in.readUnsignedShort();
+        for (int i = 0; i < count + redo; i++) {
+            for (int word = 0; word < mWords; word++) {
+                mCaptured[word] = in.readLong();
+            }
+            long score = in.readLong();
+
+            if (i < count) {
+                push(mCaptured, score);
+            } else if (mCount + mRedo < mDepth) {
+                if (mCount + mRedo == mCapacity) {
+                    grow(Math.min(Math.max(INITIAL_CAPACITY, mCapacity * 2), mDepth));
+                }
+                int slot = (mStart + mCount + mRedo) % mCapacity;
+                System.arraycopy(mCaptured, 0, mBoards, slot * mWords, mWords);
+                mScores[slot] = score;
+                mRedo++;
+            }
+        }
+    }
+}
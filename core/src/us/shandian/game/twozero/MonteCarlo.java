@@ -0,0 +1,215 @@
+package us.shandian.game.twozero;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/*
+ *
+ * Pure Monte Carlo search on packed boards
+ * Every legal move is followed by random games to the end,
+ * and the move whose games scored the most on average wins
+ *
+ * Playout n of a position is driven by its own random numbers,
+ * made from the seed, the board and n only, so the same playouts
+ * give the same move whatever thread played them
+ *
+ */
+
+public class MonteCarlo
+{
+    // Playouts between two looks at the clock
+    static final int BATCH = 16;
+
+    long mSeed;
+
+    // Fixed number of playouts per move, 0 to play until the deadline
+    int mPlayouts = 0;
+
+    long mLastPlayouts;
+    long mLastNanos;
+
+    public MonteCarlo(long seed) {
+        mSeed = seed;
+    }
+
+    public void setSeed(long seed) {
+        mSeed = seed;
+    }
+
+    public void setPlayouts(int playouts) {
+        mPlayouts = playouts;
+    }
+
+    // Playouts of the last search, per second
+    public double getSimulationsPerSecond() {
+        return mLastNanos == 0 ? 0 : mLastPlayouts * 1e9 / mLastNanos;
+    }
+
+    public long getLastPlayouts() {
+        return mLastPlayouts;
+    }
+
+    // Best move, -1 if there is none
+    // The deadline is a System.nanoTime, ignored with a fixed number of playouts
+    public int search(long board, long deadline) {
+        int[] moves = legalMoves(board);
+        if (moves.length == 0) {
+            return -1;
+        }
+
+        long start = System.nanoTime();
+        long[] totals = new long[4];
+        long[] counts = new long[4];
+        play(board, moves, 0, 1, deadline, totals, counts);
+        return finish(start, moves, totals, counts);
+    }
+
+    // The playouts are dealt to the workers in turn
+    public int search(final long board, long deadline, ExecutorService executor, int workers)
+            throws InterruptedException {
+        final int[] moves = legalMoves(board);
+        if (moves.length == 0) {
+            return -1;
+        }
+
+        long start = System.nanoTime();
+        List<Callable<long[]>> tasks = new ArrayList<Callable<long[]>>();
+        for (int i = 0; i < workers; i++) {
+            tasks.add(newPlayoutTask(board, moves, i, workers, deadline));
+        }
+
+        long[] totals = new long[4];
+        long[] counts = new long[4];
+        for (Future<long[]> result : executor.invokeAll(tasks)) {
+            long[] sums;
+            try {
+                sums = result.get();
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+
+            for (int i = 0; i <= 3; i++) {
+                totals[i] += sums[i];
+                counts[i] += sums[4 + i];
+            }
+        }
+
+        return finish(start, moves, totals, counts);
+    }
+
+    private Callable<long[]> newPlayoutTask(final long board, final int[] moves,
+            final int first, final int step, final long deadline) {
+        return new Callable<long[]>() {
+            @Override
+            public long[] call() {
+                long[] totals = new long[4];
+                long[] counts = new long[4];
+                play(board, moves, first, step, deadline, totals, counts);
+
+                long[] sums = new long[8];
+                System.arraycopy(totals, 0, sums, 0, 4);
+                System.arraycopy(counts, 0, sums, 4, 4);
+                return sums;
+            }
+        };
+    }
+
+    // Playouts first, first + step, ... until enough or too late
+    void play(long board, int[] moves, int first, int step, long deadline,
+            long[] totals, long[] counts) {
+        long limit = mPlayouts > 0 ? (long) mPlayouts * moves.length : Long.MAX_VALUE;
+        long hash = TranspositionTable.hash(board);
+
+        for (long n = first; n < limit; n += step) {
+            if (mPlayouts == 0 && (n - first) % (BATCH * step) == 0
+                    && System.nanoTime() > deadline) {
+                break;
+            }
+
+            int move = moves[(int) (n % moves.length)];
+            long next = Board.move(board, move);
+            long random = mix(mSeed ^ hash ^ mix(n));
+            totals[move] += Board.scoreMove(board, move) + playout(next, random);
+            counts[move]++;
+        }
+    }
+
+    private int finish(long start, int[] moves, long[] totals, long[] counts) {
+        int bestMove = moves[0];
+        double bestScore = Double.NEGATIVE_INFINITY;
+        long playouts = 0;
+        for (int move : moves) {
+            playouts += counts[move];
+            if (counts[move] == 0) {
+                continue;
+            }
+
+            double score = (double) totals[move] / counts[move];
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = move;
+            }
+        }
+
+        mLastPlayouts = playouts;
+        mLastNanos = System.nanoTime() - start;
+        return bestMove;
+    }
+
+    // Random game from right after a move, returns the points it made
+    static long playout(long board, long random) {
+        long score = 0;
+
+        while (true) {
+            // New tile
+            random = mix(random);
+            int empty = Board.countEmpty(board);
+            int cell = Board.nthEmpty(board, (int) ((random >>> 32) % empty));
+            long tile = (random & 0xFFFF) < 0.9 * 0x10000 ? 1 : 2;
+            board |= tile << (4 * cell);
+
+            // Any move that does something, from a random start
+            random = mix(random);
+            int first = (int) (random & 3);
+            long next = board;
+            int move = 0;
+            for (int i = 0; i <= 3 && next == board; i++) {
+                move = (first + i) & 3;
+                next = Board.move(board, move);
+            }
+
+            if (next == board) {
+                return score;
+            }
+
+            score += Board.scoreMove(board, move);
+            board = next;
+        }
+    }
+
+    static int[] legalMoves(long board) {
+        int count = 0;
+        int[] moves = new int[4];
+        for (int i = 0; i <= 3; i++) {
+            if (Board.move(board, i) != board) {
+                moves[count++] = i;
+            }
+        }
+
+        int[] legal = new int[count];
+        System.arraycopy(moves, 0, legal, 0, count);
+        return legal;
+    }
+
+    // SplitMix64 finalizer
+    static long mix(long z) {
+        z += 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
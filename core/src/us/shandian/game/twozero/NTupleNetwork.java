@@ -0,0 +1,357 @@
+package us.shandian.game.twozero;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+ *
+ * Learned evaluation of packed boards (Szubert & Jaskowski, 2014)
+ * Each tuple is a few cells, and the exponents in them index a table
+ * of weights; a board is the sum over every tuple in all 8 symmetries
+ * of the board, so one table serves the 8 places the tuple can be
+ * The value is the points the rest of the game should bring
+ *
+ * Weights file, version 2:
+ *   "NTUP" and the version as a big-endian int, the same in every version
+ *   then little-endian: int tuples, int data offset,
+ *   per tuple: int cells, then the cell indices as ints
+ *   from the data offset (a multiple of 64), per tuple: 16^cells floats
+ * Version 1 was all big-endian, with bytes for the cells and
+ * the floats right after them; it can still be read onto the heap
+ *
+ * A version 2 file can also be mapped instead of read (see map), the
+ * weights then stay in the file and are paged in as they are used
+ * Mapped weights are read-only and can be shared by any threads
+ *
+ */
+
+public class NTupleNetwork implements Evaluator
+{
+    static final int MAGIC = 0x4E545550; // "NTUP"
+    static final int VERSION = 2;
+    static final int DATA_ALIGNMENT = 64;
+
+    // Two straight lines and three squares, y * 4 + x
+    public static final int[][] DEFAULT_TUPLES = {
+            {0, 1, 2, 3},
+            {4, 5, 6, 7},
+            {0, 1, 4, 5},
+            {1, 2, 5, 6},
+            {5, 6, 9, 10}
+    };
+
+    static final int SYMMETRIES = 8;
+
+    final int[][] mTuples;
+
+    // Either on the heap and trainable, or mapped from a file
+    final float[][] mWeights;
+    final FloatBuffer[] mMapped;
+
+    // Nibble shifts of every tuple in every symmetry,
+    // [tuple * SYMMETRIES + symmetry][cell]
+    final int[][] mShifts;
+
+    public NTupleNetwork(int[][] tuples) {
+        this(tuples, null);
+    }
+
+    private NTupleNetwork(int[][] tuples, FloatBuffer[] mapped) {
+        mTuples = tuples;
+        mMapped = mapped;
+        if (mapped == null) {
+            mWeights = new float[tuples.length][];
+            for (int i = 0; i < tuples.length; i++) {
+                mWeights[i] = new float[1 << (4 * tuples[i].length)];
+            }
+        } else {
+            mWeights = null;
+        }
+
+        mShifts = new int[tuples.length * SYMMETRIES][];
+        for (int i = 0; i < tuples.length; i++) {
+            for (int s = 0; s < SYMMETRIES; s++) {
+                int[] shifts = new int[tuples[i].length];
+                for (int j = 0; j < shifts.length; j++) {
+                    shifts[j] = 4 * symmetric(tuples[i][j], s);
+                }
+                mShifts[i * SYMMETRIES + s] = shifts;
+            }
+        }
+    }
+
+    public NTupleNetwork() {
+        this(DEFAULT_TUPLES);
+    }
+
+    // Cell index moved by one of the 8 symmetries of the square
+    static int symmetric(int cell, int symmetry) {
+        int x = cell % Board.SIZE;
+        int y = cell / Board.SIZE;
+        if ((symmetry & 1) != 0) {
+            int t = x;
+            x = y;
+            y = t;
+        }
+        if ((symmetry & 2) != 0) {
+            x = Board.SIZE - 1 - x;
+        }
+        if ((symmetry & 4) != 0) {
+            y = Board.SIZE - 1 - y;
+        }
+        return y * Board.SIZE + x;
+    }
+
+    private int index(long board, int[] shifts) {
+        int index = 0;
+        for (int shift : shifts) {
+            index = (index << 4) | (int) ((board >>> shift) & 0xF);
+        }
+        return index;
+    }
+
+    @Override
+    public float evaluate(long board) {
+        float value = 0;
+        if (mMapped != null) {
+            for (int i = 0; i < mTuples.length; i++) {
+                FloatBuffer weights = mMapped[i];
+                for (int s = 0; s < SYMMETRIES; s++) {
+                    value += weights.get(index(board, mShifts[i * SYMMETRIES + s]));
+                }
+            }
+            return value;
+        }
+
+        for (int i = 0; i < mTuples.length; i++) {
+            float[] weights = mWeights[i];
+            for (int s = 0; s < SYMMETRIES; s++) {
+                value += weights[index(board, mShifts[i * SYMMETRIES + s])];
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public boolean needsMoveScores() {
+        return true;
+    }
+
+    // Moves the value of the board by delta, spread over every weight used
+    public void update(long board, float delta) {
+        if (mMapped != null) {
+            throw new IllegalStateException("Mapped weights are read-only");
+        }
+
+        float step = delta / (mTuples.length * SYMMETRIES);
+        for (int i = 0; i < mTuples.length; i++) {
+            float[] weights = mWeights[i];
+            for (int s = 0; s < SYMMETRIES; s++) {
+                weights[index(board, mShifts[i * SYMMETRIES + s])] += step;
+            }
+        }
+    }
+
+    public void save(OutputStream stream) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(dataOffset(mTuples));
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(mTuples.length);
+        header.putInt(header.capacity());
+        for (int[] tuple : mTuples) {
+            header.putInt(tuple.length);
+            for (int cell : tuple) {
+                header.putInt(cell);
+            }
+        }
+        stream.write(header.array());
+
+        // A chunk at a time, writeFloat would go through every byte
+        ByteBuffer chunk = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < mTuples.length; i++) {
+            int count = 1 << (4 * mTuples[i].length);
+            for (int j = 0; j < count; j++) {
+                if (!chunk.hasRemaining()) {
+                    stream.write(chunk.array(), 0, chunk.position());
+                    chunk.clear();
+                }
+                chunk.putFloat(mMapped != null ? mMapped[i].get(j) : mWeights[i][j]);
+            }
+        }
+        stream.write(chunk.array(), 0, chunk.position());
+        stream.flush();
+    }
+
+    // Header size, rounded up so the floats are aligned
+    private static int dataOffset(int[][] tuples) {
+        int size = 16;
+        for (int[] tuple : tuples) {
+            size += 4 + 4 * tuple.length;
+        }
+        return (size + DATA_ALIGNMENT - 1) / DATA_ALIGNMENT * DATA_ALIGNMENT;
+    }
+
+    // Onto the heap, for training further or if mapping is not possible
+    public static NTupleNetwork load(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not an n-tuple network");
+        }
+        int version = in.readInt();
+        if (version == 1) {
+            return loadVersion1(in);
+        } else if (version != VERSION) {
+            throw new IOException("Unknown n-tuple network version " + version);
+        }
+
+        byte[] rest = new byte[8];
+        in.readFully(rest);
+        ByteBuffer counts = ByteBuffer.wrap(rest).order(ByteOrder.LITTLE_ENDIAN);
+        int count = counts.getInt();
+        int offset = counts.getInt();
+        if (offset < 16 || offset > 1 << 16) {
+            throw new IOException("Bad data offset " + offset);
+        }
+
+        byte[] header = new byte[offset - 16];
+        in.readFully(header);
+        int[][] tuples = readTuples(ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN), count);
+
+        NTupleNetwork network = new NTupleNetwork(tuples);
+        byte[] chunk = new byte[1 << 16];
+        for (float[] weights : network.mWeights) {
+            int done = 0;
+            while (done < weights.length) {
+                int floats = Math.min(chunk.length / 4, weights.length - done);
+                in.readFully(chunk, 0, floats * 4);
+                ByteBuffer.wrap(chunk, 0, floats * 4).order(ByteOrder.LITTLE_ENDIAN)
+                        .asFloatBuffer().get(weights, done, floats);
+                done += floats;
+            }
+        }
+        return network;
+    }
+
+    private static NTupleNetwork loadVersion1(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        checkCount(count);
+        int[][] tuples = new int[count][];
+        for (int i = 0; i < count; i++) {
+            tuples[i] = new int[checkCells(in.readUnsignedByte())];
+            for (int j = 0; j < tuples[i].length; j++) {
+                tuples[i][j] = checkCell(in.readUnsignedByte());
+            }
+        }
+
+        NTupleNetwork network = new NTupleNetwork(tuples);
+        for (float[] weights : network.mWeights) {
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] = in.readFloat();
+            }
+        }
+        return network;
+    }
+
+    /*
+     *
+     * Maps a version 2 file read-only
+     * Nothing but the header is read now, and the mapping
+     * stays valid after the file is closed
+     *
+     */
+    public static NTupleNetwork map(File file) throws IOException {
+        RandomAccessFile access = new RandomAccessFile(file, "r");
+        MappedByteBuffer buffer;
+        try {
+            FileChannel channel = access.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            access.close();
+        }
+
+        if (buffer.capacity() < 16 || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not an n-tuple network");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Cannot map n-tuple network version " + version);
+        }
+
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(8);
+        int count = buffer.getInt();
+        int offset = buffer.getInt();
+        if (offset < 16 || offset > 1 << 16) {
+            throw new IOException("Bad data offset " + offset);
+        }
+        int[][] tuples = readTuples(buffer, count);
+        if (offset < buffer.position()) {
+            // The tuple list runs into the weights
+            throw new IOException("Bad data offset " + offset);
+        }
+
+        FloatBuffer[] mapped = new FloatBuffer[count];
+        long position = offset;
+        for (int i = 0; i < count; i++) {
+            long size = 4L << (4 * tuples[i].length);
+            if (position + size > buffer.capacity()) {
+                throw new IOException("Truncated n-tuple network");
+            }
+            buffer.limit((int) (position + size));
+            buffer.position((int) position);
+            mapped[i] = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+            buffer.limit(buffer.capacity());
+            position += size;
+        }
+
+        return new NTupleNetwork(tuples, mapped);
+    }
+
+    private static int[][] readTuples(ByteBuffer header, int count) throws IOException {
+        checkCount(count);
+        int[][] tuples = new int[count][];
+        try {
+            for (int i = 0; i < count; i++) {
+                tuples[i] = new int[checkCells(header.getInt())];
+                for (int j = 0; j < tuples[i].length; j++) {
+                    tuples[i][j] = checkCell(header.getInt());
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated n-tuple network header");
+        }
+        return tuples;
+    }
+
+    private static void checkCount(int count) throws IOException {
+        if (count <= 0 || count > 64) {
+            throw new IOException("Bad number of tuples " + count);
+        }
+    }
+
+    private static int checkCells(int cells) throws IOException {
+        if (cells <= 0 || cells > 6) {
+            throw new IOException("Bad tuple size " + cells);
+        }
+        return cells;
+    }
+
+    private static int checkCell(int cell) throws IOException {
+        if (cell < 0 || cell >= Board.SIZE * Board.SIZE) {
+            throw new IOException("Bad tuple cell " + cell);
+        }
+        return cell;
+    }
+}
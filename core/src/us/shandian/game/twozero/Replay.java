@@ -0,0 +1,238 @@
+package us.shandian.game.twozero;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/*
+ *
+ * A game as it was played, read from a replay log, see ReplayWriter
+ * A game's new tiles all come from its seed, so the seed and the moves
+ * are enough to play it again, exactly, and without any UI
+ *   int "RPLY", byte version, then records, a type byte each:
+ *   GAME   long seed, byte variety, byte width, byte height,
+ *          byte exponent of the winning tile (1 to 31), byte inverse
+ *   MOVES  byte count, then the moves 2 bits each, 4 to a byte,
+ *          the first in the low bits
+ *   UNDO, REDO
+ *   PLACE  byte x, byte y, a tile put down in inverse mode
+ *   END    long score, the game is over
+ * The records after a GAME are that game's, until the next GAME
+ * Only moves that moved something are kept
+ * A record cut short at the end of the log is left out
+ *
+ */
+
+public class Replay
+{
+    static final int MAGIC = 0x52504c59;
+    static final int VERSION = 1;
+
+    static final int GAME = 1;
+    static final int MOVES = 2;
+    static final int UNDO = 3;
+    static final int REDO = 4;
+    static final int PLACE = 5;
+    static final int END = 6;
+
+    // Moves a MOVES record holds at most
+    static final int MAX_MOVES = 255;
+
+    // What a game is played again with, moves are 0 to 3
+    static final byte EVENT_UNDO = 4;
+    static final byte EVENT_REDO = 5;
+    // Followed by x and y
+    static final byte EVENT_PLACE = 6;
+
+    public final long seed;
+    public final int variety;
+    public final int width;
+    public final int height;
+    public final int goalExponent;
+    public final boolean inverse;
+
+    byte[] mEvents = new byte[64];
+    int mLength = 0;
+    int mMoves = 0;
+
+    boolean mEnded = false;
+    long mScore;
+
+    Replay(long seed, int variety, int width, int height, int goalExponent, boolean inverse) {
+        this.seed = seed;
+        this.variety = variety;
+        this.width = width;
+        this.height = height;
+        this.goalExponent = goalExponent;
+        this.inverse = inverse;
+    }
+
+    public int getMoves() {
+        return mMoves;
+    }
+
+    // Played to its end, the score is then known
+    public boolean isEnded() {
+        return mEnded;
+    }
+
+    public long getScore() {
+        return mScore;
+    }
+
+    // The game as it was started, nothing played yet
+    public Game newGame() {
+        Game game = new Game(width, height, goalExponent);
+        game.spawnAfterMove = !inverse;
+        game.newGame(seed);
+        return game;
+    }
+
+    // False as soon as something in the log cannot be done: a move
+    // that moves nothing, or no move to undo; the game then went another way
+    public boolean play(Game game) {
+        byte[] events = mEvents;
+        for (int i = 0; i < mLength; i++) {
+            int event = events[i];
+            boolean done;
+            if (event < EVENT_UNDO) {
+                done = game.move(event);
+            } else if (event == EVENT_UNDO) {
+                done = game.revertState();
+            } else if (event == EVENT_REDO) {
+                done = game.redoState();
+            } else {
+                Cell cell = new Cell(events[i + 1], events[i + 2]);
+                i += 2;
+                done = game.grid.isCellAvailable(cell);
+                if (done) {
+                    game.addRandomTile(cell);
+                }
+            }
+            if (!done) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Played through the whole log, and it ended where it was recorded to
+    public boolean matches(Game game) {
+        return !mEnded || (game.score == mScore && (game.won || game.lose));
+    }
+
+    private void add(int event) {
+        if (mLength == mEvents.length) {
+            byte[] events = new byte[mEvents.length * 2];
+            System.arraycopy(mEvents, 0, events, 0, mLength);
+            mEvents = events;
+        }
+        mEvents[mLength++] = (byte) event;
+    }
+
+    // The games of a log one after the other
+    public static class Reader
+    {
+        final DataInputStream mIn;
+        final byte[] mMoves = new byte[(MAX_MOVES + 3) / 4];
+        // A GAME record already read, for the next game
+        Replay mNext;
+        boolean mEnd = false;
+
+        public Reader(InputStream in) throws IOException {
+            mIn = new DataInputStream(in);
+            if (mIn.readInt() != MAGIC) {
+                throw new IOException("Not a replay log");
+            }
+            int version = mIn.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("Unknown replay log version " + version);
+            }
+        }
+
+        // null after the last one
+        public Replay next() throws IOException {
+            while (mNext == null && !mEnd) {
+                // Records before the first game have no game to go with
+                readRecord(null);
+            }
+            Replay replay = mNext;
+            mNext = null;
+            while (replay != null && mNext == null && !mEnd) {
+                readRecord(replay);
+            }
+            return replay;
+        }
+
+        private void readRecord(Replay replay) throws IOException {
+            int type = mIn.read();
+            if (type < 0) {
+                mEnd = true;
+                return;
+            }
+
+            try {
+                switch (type) {
+                    case GAME:
+                        mNext = new Replay(mIn.readLong(), mIn.readUnsignedByte(), mIn.readUnsignedByte(),
+                                mIn.readUnsignedByte(), mIn.readUnsignedByte(), mIn.readUnsignedByte() != 0);
+                        if (mNext.goalExponent < 1 || mNext.goalExponent > WideBoard.MAX_EXPONENT) {
+                            throw new IOException("Bad goal 2^" + mNext.goalExponent + " in replay log");
+                        }
+                        break;
+                    case MOVES:
+                        readMoves(replay);
+                        break;
+                    case UNDO:
+                    case REDO:
+                        if (replay != null) {
+                            replay.add(type == UNDO ? EVENT_UNDO : EVENT_REDO);
+                        }
+                        break;
+                    case PLACE:
+                        int x = mIn.readUnsignedByte();
+                        int y = mIn.readUnsignedByte();
+                        if (replay != null) {
+                            replay.add(EVENT_PLACE);
+                            replay.add(x);
+                            replay.add(y);
+                        }
+                        break;
+                    case END:
+                        long score = mIn.readLong();
+                        if (replay != null) {
+                            replay.mEnded = true;
+                            replay.mScore = score;
+                        }
+                        break;
+                    default:
+                        throw new IOException("Bad replay record " + type);
+                }
+            } catch (EOFException e) {
+                // Cut short while it was written
+                mEnd = true;
+            }
+        }
+
+        private void readMoves(Replay replay) throws IOException {
+            int count = mIn.readUnsignedByte();
+            int bytes = (count + 3) / 4;
+            int packed = 0;
+            // Read whole first, a cut short record adds no moves
+            byte[] moves = mMoves;
+            mIn.readFully(moves, 0, bytes);
+            if (replay == null) {
+                return;
+            }
+            for (int i = 0; i < count; i++) {
+                if (i % 4 == 0) {
+                    packed = moves[i / 4];
+                }
+                replay.add(packed & 3);
+                packed >>= 2;
+            }
+            replay.mMoves += count;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package us.shandian.game.twozero;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/*
+ *
+ * Makes the records of a replay log, see Replay for the format
+ * Moves are packed as they are made, and only turned into a record
+ * when 255 have piled up or the records are drained to the log
+ * Made on the game's thread and drained on another, so it is synchronized
+ *
+ */
+
+public class ReplayWriter
+{
+    // Big-endian like DataOutput, without its IOExceptions
+    final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+
+    final byte[] mMoves = new byte[(Replay.MAX_MOVES + 3) / 4];
+    int mPending = 0;
+
+    // Where the last GAME record not drained yet begins, -1 if none
+    int mGameStart = -1;
+
+    // Starts a log, before its first record
+    public static void writeHeader(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(Replay.MAGIC);
+        data.writeByte(Replay.VERSION);
+        data.flush();
+    }
+
+    // game was just started from its seed
+    public synchronized void startGame(Game game, int variety) {
+        flushMoves();
+        mGameStart = mOut.size();
+        mOut.write(Replay.GAME);
+        writeLong(game.seed, 8);
+        mOut.write(variety);
+        mOut.write(game.numSquaresX);
+        mOut.write(game.numSquaresY);
+        mOut.write(game.goalExponent);
+        mOut.write(game.spawnAfterMove ? 0 : 1);
+    }
+
+    // One that moved something
+    public synchronized void move(int direction) {
+        if (mPending % 4 == 0) {
+            mMoves[mPending / 4] = 0;
+        }
+        mMoves[mPending / 4] |= direction << (mPending % 4 * 2);
+        mPending++;
+        if (mPending == Replay.MAX_MOVES) {
+            flushMoves();
+        }
+    }
+
+    public synchronized void undo() {
+        flushMoves();
+        mOut.write(Replay.UNDO);
+    }
+
+    public synchronized void redo() {
+        flushMoves();
+        mOut.write(Replay.REDO);
+    }
+
+    public synchronized void place(int x, int y) {
+        flushMoves();
+        mOut.write(Replay.PLACE);
+        mOut.write(x);
+        mOut.write(y);
+    }
+
+    public synchronized void end(long score) {
+        flushMoves();
+        mOut.write(Replay.END);
+        writeLong(score, 8);
+    }
+
+    public synchronized boolean isEmpty() {
+        return mPending == 0 && mOut.size() == 0;
+    }
+
+    // A game was started since the last drain, so a new log may begin
+    // with it: in the middle of a game the records would have no GAME to go with
+    public synchronized boolean hasGame() {
+        return mGameStart >= 0;
+    }
+
+    // Everything so far onto the end of the log, and forgotten here
+    public void drain(OutputStream out) throws IOException {
+        byte[] bytes;
+        synchronized (this) {
+            flushMoves();
+            bytes = mOut.toByteArray();
+            mOut.reset();
+            mGameStart = -1;
+        }
+        out.write(bytes);
+    }
+
+    // Only what comes before that game, the game itself is left for the next drain
+    public void drainBeforeGame(OutputStream out) throws IOException {
+        byte[] bytes;
+        int length;
+        synchronized (this) {
+            if (mGameStart < 0) {
+                return;
+            }
+            bytes = mOut.toByteArray();
+            length = mGameStart;
+            mOut.reset();
+            mOut.write(bytes, length, bytes.length - length);
+            mGameStart = 0;
+        }
+        out.write(bytes, 0, length);
+    }
+
+    private void flushMoves() {
+        if (mPending == 0) {
+            return;
+        }
+        mOut.write(Replay.MOVES);
+        mOut.write(mPending);
+        mOut.write(mMoves, 0, (mPending + 3) / 4);
+        mPending = 0;
+    }
+
+    // The low bytes of value, the highest first
+    private void writeLong(long value, int bytes) {
+        for (int i = bytes - 1; i >= 0; i--) {
+            mOut.write((int) (value >>> (i * 8)));
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package us.shandian.game.twozero;
+
+/*
+ *
+ * AI.evaluate for packed boards, by table lookups
+ * Smoothness, monotonicity and twos and fours only look along lines,
+ * so they are scored once for each of the 65536 rows, with the weights
+ * already applied, and a board is its 4 rows plus its 4 columns
+ * The empty cells and the max tile come from small tables as well,
+ * only islands still need the board (and only if they are weighed)
+ *
+ * Monotonicity is taken per line here, while the tile version
+ * takes the best direction over the whole board
+ *
+ */
+
+public class RowHeuristic implements Evaluator
+{
+    // Biggest exponent in each row, the same for any weights
+    static final byte[] ROW_MAX = new byte[65536];
+
+    static final float[] EMPTY_LOG = new float[Board.SIZE * Board.SIZE + 1];
+
+    static {
+        for (int row = 0; row < 65536; row++) {
+            int max = 0;
+            for (int i = 0; i < Board.SIZE; i++) {
+                max = Math.max(max, (row >>> (4 * i)) & 0xF);
+            }
+            ROW_MAX[row] = (byte) max;
+        }
+
+        for (int i = 0; i < EMPTY_LOG.length; i++) {
+            EMPTY_LOG[i] = (float) Math.log(i);
+        }
+    }
+
+    final Weights mWeights;
+    final float[] mLines = new float[65536];
+
+    public RowHeuristic(Weights weights) {
+        mWeights = weights;
+
+        int[] line = new int[Board.SIZE];
+        for (int row = 0; row < 65536; row++) {
+            for (int i = 0; i < Board.SIZE; i++) {
+                line[i] = (row >>> (4 * i)) & 0xF;
+            }
+
+            // Every cell is in one row and one column, so half each
+            mLines[row] = weights.smooth * lineSmoothness(line)
+                        + weights.mono * lineMonotonicity(line)
+                        - weights.twoAndFour * lineTwosAndFours(line) / 2f;
+        }
+    }
+
+    public Weights getWeights() {
+        return mWeights;
+    }
+
+    @Override
+    public float evaluate(long board) {
+        long transposed = Board.transpose(board);
+        float score = 0;
+        int max = 0;
+
+        for (int i = 0; i < Board.SIZE; i++) {
+            int row = (int) (board >>> (16 * i)) & 0xFFFF;
+            int column = (int) (transposed >>> (16 * i)) & 0xFFFF;
+            score += mLines[row] + mLines[column];
+            max = Math.max(max, ROW_MAX[row]);
+        }
+
+        score += EMPTY_LOG[Board.countEmpty(board)] * mWeights.empty
+               + (1 << max) * mWeights.max;
+
+        if (mWeights.islands != 0) {
+            score -= AI.countIslands(board) * mWeights.islands;
+        }
+
+        return score;
+    }
+
+    @Override
+    public boolean needsMoveScores() {
+        return false;
+    }
+
+    // Same walk as AI.getSmoothness, along one line
+    static int lineSmoothness(int[] line) {
+        int smoothness = 0;
+        for (int i = 0; i < line.length; i++) {
+            if (line[i] == 0) {
+                continue;
+            }
+
+            for (int j = i + 1; j < line.length; j++) {
+                if (line[j] != 0) {
+                    smoothness -= Math.abs(line[i] - line[j]);
+                    break;
+                }
+            }
+        }
+        return smoothness;
+    }
+
+    // Same walk as AI.getMonotonticity, along one line
+    static int lineMonotonicity(int[] line) {
+        int decreasing = 0;
+        int increasing = 0;
+
+        int current = 0;
+        int next = current + 1;
+        while (next < line.length) {
+            while (next < line.length && line[next] == 0) {
+                next++;
+            }
+            if (next >= line.length) {
+                next--;
+            }
+            if (line[current] > line[next]) {
+                decreasing += line[next] - line[current];
+            } else if (line[next] > line[current]) {
+                increasing += line[current] - line[next];
+            }
+            current = next;
+            next++;
+        }
+
+        return Math.max(decreasing, increasing);
+    }
+
+    static int lineTwosAndFours(int[] line) {
+        int num = 0;
+        for (int exponent : line) {
+            if (exponent == 1 || exponent == 2) {
+                num++;
+            }
+        }
+        return num;
+    }
+}
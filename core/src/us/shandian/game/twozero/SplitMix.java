@@ -0,0 +1,54 @@
+package us.shandian.game.twozero;
+
+import java.util.Random;
+
+/*
+ *
+ * SplitMix64, the generator behind SplittableRandom, as a Random
+ * (SplittableRandom itself needs API 24)
+ * The whole state is one long, so a game's new tiles can be saved
+ * and made again from its seed, and every VM gives the same ones:
+ * nextInt and nextFloat are specified on top of next
+ *
+ */
+
+public class SplitMix extends Random
+{
+    private static final long serialVersionUID = 1L;
+
+    static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    long mState;
+
+    public SplitMix(long seed) {
+        super(0);
+        mState = seed;
+    }
+
+    public long getState() {
+        return mState;
+    }
+
+    public void setState(long state) {
+        mState = state;
+    }
+
+    // Also called by Random's constructor
+    @Override
+    public synchronized void setSeed(long seed) {
+        mState = seed;
+    }
+
+    @Override
+    public long nextLong() {
+        long z = mState += GOLDEN_GAMMA;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    protected int next(int bits) {
+        return (int) (nextLong() >>> (64 - bits));
+    }
+}
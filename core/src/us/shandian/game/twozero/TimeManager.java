@@ -0,0 +1,86 @@
+package us.shandian.game.twozero;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ *
+ * How long the AI may think about a move
+ * Quiet boards get less than the base time, crowded ones
+ * (few empty cells, big tiles to lose) get more, as that is
+ * where a deeper search changes the outcome
+ *
+ */
+
+public class TimeManager
+{
+    static final float MIN_SCALE = 0.5f;
+    static final float MAX_SCALE = 3.0f;
+
+    // From this tile on, every doubling adds a tenth of the base
+    static final int BIG_TILE_EXPONENT = 10;
+
+    long mBase;
+    boolean mAdaptive = true;
+
+    public TimeManager(long baseMillis) {
+        mBase = baseMillis;
+    }
+
+    public void setBase(long baseMillis) {
+        mBase = baseMillis;
+    }
+
+    public long getBase() {
+        return mBase;
+    }
+
+    // Off: every move gets the base time
+    public void setAdaptive(boolean adaptive) {
+        mAdaptive = adaptive;
+    }
+
+    // Nanoseconds for a move on this game
+    public long budget(Game game) {
+        Grid grid = game.grid;
+        if (grid.packed) {
+            return budget(Board.countEmpty(grid.board), Board.SIZE * Board.SIZE, Board.maxExponent(grid.board));
+        }
+        if (grid.wide != null) {
+            WideBoard wide = grid.wide;
+            return budget(wide.countEmpty(grid.rows), wide.width * wide.height, wide.maxExponent(grid.rows));
+        }
+
+        int empty = 0;
+        int max = 0;
+        for (Tile[] array : grid.field) {
+            for (Tile tile : array) {
+                if (tile == null) {
+                    empty++;
+                } else {
+                    max = Math.max(max, tile.getValue());
+                }
+            }
+        }
+        int cells = grid.field.length * grid.field[0].length;
+        return budget(empty, cells, max == 0 ? 0 : Board.exponentOf(max));
+    }
+
+    public long budget(int empty, int cells, int maxExponent) {
+        long base = TimeUnit.MILLISECONDS.toNanos(mBase);
+        if (!mAdaptive) {
+            return base;
+        }
+
+        // Grows slowly while there is room, fast when it runs out
+        float filled = 1f - (float) empty / cells;
+        float scale = MIN_SCALE + 2f * filled * filled * filled;
+
+        if (maxExponent > BIG_TILE_EXPONENT) {
+            scale *= 1f + 0.1f * (maxExponent - BIG_TILE_EXPONENT);
+        }
+
+        scale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale));
+        // Whole days stay whole days, no overflow
+        return base > Long.MAX_VALUE / 4 ? base : (long) (base * scale);
+    }
+}
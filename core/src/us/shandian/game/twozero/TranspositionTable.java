@@ -0,0 +1,141 @@
+package us.shandian.game.twozero;
+
+import java.util.Random;
+
+/*
+ *
+ * Fixed-size cache of searched positions on packed boards
+ * Every entry keeps the board, the depth it was searched to,
+ * its score and the best move found there
+ * Entries are indexed by a Zobrist hash of the board
+ *
+ * The table can be shared by several search threads without locks:
+ * the board is stored xor-ed with its data, so an entry torn by
+ * two concurrent writes no longer matches its board and is a miss
+ *
+ */
+
+public class TranspositionTable
+{
+    // Each entry is two longs: the board and its packed data
+    static final int ENTRY_SIZE = 16;
+
+    // One random key for every byte (two cells) at every byte position
+    static final long[][] ZOBRIST = new long[8][256];
+
+    static {
+        Random random = new Random(2048);
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 256; j++) {
+                ZOBRIST[i][j] = random.nextLong();
+            }
+        }
+    }
+
+    long[] mBoards;
+    long[] mData;
+    int mMask;
+    int mGeneration = 0;
+
+    // Only approximate when several threads share the table
+    long mProbes = 0;
+    long mHits = 0;
+
+    public TranspositionTable(int megabytes) {
+        // Round down to a power of two so the index is just a mask
+        int entries = Integer.highestOneBit(Math.max(1, megabytes * 1024 * 1024 / ENTRY_SIZE));
+        mBoards = new long[entries];
+        mData = new long[entries];
+        mMask = entries - 1;
+    }
+
+    public static long hash(long board) {
+        return ZOBRIST[0][(int) (board & 0xFF)]
+             ^ ZOBRIST[1][(int) ((board >>> 8) & 0xFF)]
+             ^ ZOBRIST[2][(int) ((board >>> 16) & 0xFF)]
+             ^ ZOBRIST[3][(int) ((board >>> 24) & 0xFF)]
+             ^ ZOBRIST[4][(int) ((board >>> 32) & 0xFF)]
+             ^ ZOBRIST[5][(int) ((board >>> 40) & 0xFF)]
+             ^ ZOBRIST[6][(int) ((board >>> 48) & 0xFF)]
+             ^ ZOBRIST[7][(int) ((board >>> 56) & 0xFF)];
+    }
+
+    // Called before every new search, older entries are then replaced first
+    public void newSearch() {
+        mGeneration = (mGeneration + 1) & 0xFF;
+    }
+
+    // Packed data stored for the board, 0 if it is not in the table
+    public long probe(long board) {
+        int index = (int) hash(board) & mMask;
+        mProbes++;
+
+        long data = mData[index];
+        if (data != 0 && (mBoards[index] ^ data) == board) {
+            mHits++;
+            return data;
+        }
+        return 0;
+    }
+
+    public void store(long board, int depth, float score, int move) {
+        int index = (int) hash(board) & mMask;
+        long old = mData[index];
+
+        // Keep deeper results, of the current search or of this very board:
+        // a branch cut for being unlikely comes back shallower than it was searched before
+        if (old != 0 && depthOf(old) > depth
+                && (generationOf(old) == mGeneration || (mBoards[index] ^ old) == board)) {
+            return;
+        }
+
+        long data = (Float.floatToIntBits(score) & 0xFFFFFFFFL)
+                  | (long) (depth + 1) << 32
+                  | (long) (move & 0xFF) << 40
+                  | (long) mGeneration << 48;
+        mData[index] = data;
+        mBoards[index] = board ^ data;
+    }
+
+    public void clear() {
+        for (int i = 0; i < mData.length; i++) {
+            mBoards[i] = 0;
+            mData[i] = 0;
+        }
+        mProbes = 0;
+        mHits = 0;
+    }
+
+    public static float scoreOf(long data) {
+        return Float.intBitsToFloat((int) data);
+    }
+
+    public static int depthOf(long data) {
+        return (int) ((data >>> 32) & 0xFF) - 1;
+    }
+
+    public static int moveOf(long data) {
+        return (byte) (data >>> 40);
+    }
+
+    static int generationOf(long data) {
+        return (int) ((data >>> 48) & 0xFF);
+    }
+
+    public double getHitRate() {
+        return mProbes == 0 ? 0 : (double) mHits / mProbes;
+    }
+
+    public long getProbes() {
+        return mProbes;
+    }
+
+    public long getHits() {
+        return mHits;
+    }
+
+    // Bytes taken by the entries
+    public long getMemoryUsage() {
+        return (long) mData.length * ENTRY_SIZE;
+    }
+}
@@ -0,0 +1,95 @@
+package us.shandian.game.twozero;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/*
+ *
+ * How much each feature counts in AI.evaluate
+ * A profile is a properties file, one weight per feature name:
+ *   smooth=0.1
+ *   mono=1.0
+ *   ...
+ * Features missing from a profile keep the default weight
+ *
+ */
+
+public class Weights
+{
+    public static final String[] NAMES = {
+            "smooth", "mono", "empty", "max", "islands", "twoAndFour"
+    };
+
+    // The hand-set weights
+    // Islands and twos and fours were left out of evaluate by hand,
+    // which is the same as weighing them 0
+    public static final Weights DEFAULT = new Weights(new float[]{
+            0.1f, 1.0f, 2.7f, 1.0f, 0f, 0f
+    });
+
+    public final float smooth;
+    public final float mono;
+    public final float empty;
+    public final float max;
+    public final float islands;
+    public final float twoAndFour;
+
+    public Weights(float[] values) {
+        if (values.length != NAMES.length) {
+            throw new IllegalArgumentException("Expected " + NAMES.length + " weights, got " + values.length);
+        }
+
+        smooth = values[0];
+        mono = values[1];
+        empty = values[2];
+        max = values[3];
+        islands = values[4];
+        twoAndFour = values[5];
+    }
+
+    public float[] toArray() {
+        return new float[]{smooth, mono, empty, max, islands, twoAndFour};
+    }
+
+    public static Weights load(InputStream in) throws IOException {
+        Properties properties = new Properties();
+        properties.load(in);
+
+        float[] values = DEFAULT.toArray();
+        for (int i = 0; i < NAMES.length; i++) {
+            String value = properties.getProperty(NAMES[i]);
+            if (value != null) {
+                try {
+                    values[i] = Float.parseFloat(value.trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Bad weight " + NAMES[i] + "=" + value);
+                }
+            }
+        }
+        return new Weights(values);
+    }
+
+    public void save(OutputStream out, String comment) throws IOException {
+        Properties properties = new Properties();
+        float[] values = toArray();
+        for (int i = 0; i < NAMES.length; i++) {
+            properties.setProperty(NAMES[i], String.valueOf(values[i]));
+        }
+        properties.store(out, comment);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        float[] values = toArray();
+        for (int i = 0; i < NAMES.length; i++) {
+            if (i > 0) {
+                builder.append(' ');
+            }
+            builder.append(NAMES[i]).append('=').append(values[i]);
+        }
+        return builder.toString();
+    }
+}
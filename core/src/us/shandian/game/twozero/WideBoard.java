@@ -0,0 +1,212 @@
+package us.shandian.game.twozero;
+
+/*
+ *
+ * The boards too big for a Board long, up to 6x6, packed into ints
+ * Every cell takes 5 bits holding log2 of its value (0 = empty),
+ * so every variety fits, 2^31 included
+ * A board is an int per row, cell (x, y) in bits 5 * x of row y,
+ * and a move slides whole rows (or columns, gathered into an int)
+ * with shifts, no tile and no cell is made
+ * The ints are the caller's, the same WideBoard serves every thread
+ *
+ */
+
+public class WideBoard
+{
+    static final int MAX_SIZE = 6;
+    static final int BITS = 5;
+    static final int MAX_EXPONENT = (1 << BITS) - 1;
+
+    // A row or a column, slide puts the points above it
+    static final int LINE_BITS = BITS * MAX_SIZE;
+    static final int LINE_MASK = (1 << LINE_BITS) - 1;
+
+    public final int width;
+    public final int height;
+
+    // The lowest bit of every cell of a row
+    final int mRowLow;
+
+    public WideBoard(int width, int height) {
+        this.width = width;
+        this.height = height;
+        mRowLow = lowBits(width);
+    }
+
+    // Those a Board does not take, and not bigger than 6x6
+    public static boolean fits(int width, int height) {
+        return !Board.fits(width, height) && width <= MAX_SIZE && height <= MAX_SIZE;
+    }
+
+    private static int lowBits(int cells) {
+        int low = 0;
+        for (int i = 0; i < cells; i++) {
+            low |= 1 << (BITS * i);
+        }
+        return low;
+    }
+
+    public static int getExponent(int[] rows, int x, int y) {
+        return (rows[y] >>> (BITS * x)) & MAX_EXPONENT;
+    }
+
+    public static void setExponent(int[] rows, int x, int y, int exponent) {
+        int shift = BITS * x;
+        rows[y] = (rows[y] & ~(MAX_EXPONENT << shift)) | (exponent << shift);
+    }
+
+    public int countEmpty(int[] rows) {
+        int full = 0;
+        for (int y = 0; y < height; y++) {
+            full += Integer.bitCount(occupied(rows[y]) & mRowLow);
+        }
+        return width * height - full;
+    }
+
+    // Index (x * height + y) of the n-th empty cell, or -1 if there is none
+    // In field order, the order the tiles were walked in before
+    public int nthEmpty(int[] rows, int n) {
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                if (getExponent(rows, x, y) == 0) {
+                    if (n == 0) {
+                        return x * height + y;
+                    }
+                    n--;
+                }
+            }
+        }
+        return -1;
+    }
+
+    public int maxExponent(int[] rows) {
+        int max = 0;
+        for (int y = 0; y < height; y++) {
+            for (int row = rows[y]; row != 0; row >>>= BITS) {
+                max = Math.max(max, row & MAX_EXPONENT);
+            }
+        }
+        return max;
+    }
+
+    // 0: up, 1: right, 2: down, 3: left
+    // Slides rows into next, returns the points the merges earn, -1 if nothing moved
+    public long move(int[] rows, int[] next, int direction) {
+        return direction == 1 || direction == 3
+                ? moveRows(rows, next, direction == 1)
+                : moveColumns(rows, next, direction == 2);
+    }
+
+    public boolean isGameOver(int[] rows) {
+        if (countEmpty(rows) > 0) {
+            return false;
+        }
+        // Full, so only two equal neighbours can still move
+        for (int y = 0; y < height; y++) {
+            int row = rows[y];
+            if (hasZeroCell(row ^ (row >>> BITS), mRowLow >>> BITS)
+                    || (y + 1 < height && hasZeroCell(row ^ rows[y + 1], mRowLow))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void fromGrid(Grid grid, int[] rows) {
+        for (int y = 0; y < height; y++) {
+            rows[y] = 0;
+            for (int x = 0; x < width; x++) {
+                Tile tile = grid.field[x][y];
+                if (tile != null) {
+                    setExponent(rows, x, y, Board.exponentOf(tile.getValue()));
+                }
+            }
+        }
+    }
+
+    private long moveRows(int[] rows, int[] next, boolean reversed) {
+        long points = 0;
+        boolean moved = false;
+        for (int y = 0; y < height; y++) {
+            int row = rows[y];
+            long slid = slide(row, width, reversed);
+            next[y] = (int) slid & LINE_MASK;
+            moved |= next[y] != row;
+            points += slid >>> LINE_BITS;
+        }
+        return moved ? points : -1;
+    }
+
+    private long moveColumns(int[] rows, int[] next, boolean reversed) {
+        long points = 0;
+        boolean moved = false;
+        for (int y = 0; y < height; y++) {
+            next[y] = 0;
+        }
+        for (int x = 0; x < width; x++) {
+            int shift = BITS * x;
+            int column = 0;
+            for (int y = 0; y < height; y++) {
+                column |= ((rows[y] >>> shift) & MAX_EXPONENT) << (BITS * y);
+            }
+
+            long slid = slide(column, height, reversed);
+            int result = (int) slid & LINE_MASK;
+            moved |= result != column;
+            points += slid >>> LINE_BITS;
+            for (int y = 0; result != 0; y++, result >>>= BITS) {
+                next[y] |= (result & MAX_EXPONENT) << shift;
+            }
+        }
+        return moved ? points : -1;
+    }
+
+    // A line of length cells slid towards cell 0 (towards the last if reversed),
+    // merging equal neighbours once; the points the merges earn above LINE_BITS
+    static long slide(int line, int length, boolean reversed) {
+        int result = 0;
+        int count = 0;
+        int pending = 0;
+        long points = 0;
+        int step = reversed ? -BITS : BITS;
+        int start = reversed ? BITS * (length - 1) : 0;
+        int to = start;
+        for (int i = 0, from = start; i < length; i++, from += step) {
+            int exponent = (line >>> from) & MAX_EXPONENT;
+            if (exponent == 0) {
+                continue;
+            }
+
+            if (pending == 0) {
+                pending = exponent;
+            } else if (pending == exponent) {
+                int merged = Math.min(exponent + 1, MAX_EXPONENT);
+                result |= merged << to;
+                to += step;
+                points += 1L << merged;
+                pending = 0;
+            } else {
+                result |= pending << to;
+                to += step;
+                pending = exponent;
+            }
+        }
+        if (pending != 0) {
+            result |= pending << to;
+        }
+        return result | points << LINE_BITS;
+    }
+
+    // A zero among the cells at low (their lowest bits), on a xor: two cells are equal
+    private static boolean hasZeroCell(int difference, int low) {
+        return (~occupied(difference) & low) != 0;
+    }
+
+    // Bit 0 of every cell set if the cell is not empty
+    private static int occupied(int line) {
+        int folded = line | (line >>> 1);
+        folded |= folded >>> 2;
+        return folded | (line >>> 4);
+    }
+}
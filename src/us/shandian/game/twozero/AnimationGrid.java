@@ -1,82 +1,108 @@
 package us.shandian.game.twozero;
 
-import java.util.ArrayList;
-
+/*
+ *
+ * The animations started by the last change of the game
+ * Kept flat, one slot per animation in arrays made once, and cleared
+ * for the next move instead of made again; with the snapshots reused
+ * too, moving makes no garbage for the frames to pause on
+ * It only records them: the game's thread fills it and BoardSnapshot
+ * copies it out, the view times and draws the snapshot
+ *
+ */
 
 public class AnimationGrid {
-    public ArrayList<AnimationCell>[][] field;
-    int activeAnimations = 0;
-    boolean oneMoreFrame = false;
-    public ArrayList<AnimationCell> globalAnimation = new ArrayList<AnimationCell>();
+    // A cell gets at most two moving tiles and a merge, or a spawn
+    static final int PER_CELL = 4;
+    static final int GLOBAL = 2;
+
+    public final int width;
+    public final int height;
+    final int capacity;
+
+    // [animation], x and y are -1 for the global ones
+    final int[] mX;
+    final int[] mY;
+    final int[] mTypes;
+    final int[] mFromX;
+    final int[] mFromY;
+    final long[] mLengths;
+    final long[] mDelays;
+    int mCount = 0;
+
     public AnimationGrid(int x, int y) {
-        field = new ArrayList[x][y];
+        width = x;
+        height = y;
+        capacity = PER_CELL * x * y + GLOBAL;
+        mX = new int[capacity];
+        mY = new int[capacity];
+        mTypes = new int[capacity];
+        mFromX = new int[capacity];
+        mFromY = new int[capacity];
+        mLengths = new long[capacity];
+        mDelays = new long[capacity];
+    }
 
-        for (int xx = 0; xx < x; xx++) {
-            for (int yy = 0; yy < y; yy++) {
-                field[xx][yy] = new ArrayList<AnimationCell>();
-            }
-        }
+    public boolean fits(int x, int y) {
+        return x == width && y == height;
     }
 
-    public void startAnimation(int x, int y, int animationType, long length, long delay, int[] extras) {
-        AnimationCell animationToAdd = new AnimationCell(x, y, animationType, length, delay, extras);
-        if (x == -1 && y == -1) {
-            globalAnimation.add(animationToAdd);
-        } else {
-            field[x][y].add(animationToAdd);
-        }
-        activeAnimations = activeAnimations + 1;
+    // Ready for the next move, nothing is freed
+    public void clear() {
+        mCount = 0;
     }
 
-    public void tickAll(long timeElapsed) {
-        ArrayList<AnimationCell> cancelledAnimations = new ArrayList<AnimationCell>();
-        for (AnimationCell animation : globalAnimation) {
-            animation.tick(timeElapsed);
-            if (animation.animationDone()) {
-                cancelledAnimations.add(animation);
-                activeAnimations = activeAnimations - 1;
-            }
+    // fromX and fromY are where a moving tile comes from, -1 for the others
+    public void startAnimation(int x, int y, int animationType, long length, long delay, int fromX, int fromY) {
+        if (mCount == capacity) {
+            // Never with the animations the game makes, the tile just shows up
+            return;
         }
 
-        for (ArrayList<AnimationCell>[] array : field) {
-            for (ArrayList<AnimationCell> list : array) {
-                for (AnimationCell animation : list) {
-                    animation.tick(timeElapsed);
-                    if (animation.animationDone()) {
-                        cancelledAnimations.add(animation);
-                        activeAnimations = activeAnimations - 1;
-                    }
-                }
-            }
-        }
+        int i = mCount++;
+        mX[i] = x;
+        mY[i] = y;
+        mTypes[i] = animationType;
+        mFromX[i] = fromX;
+        mFromY[i] = fromY;
+        mLengths[i] = length;
+        mDelays[i] = delay;
+    }
 
-        for (AnimationCell animation : cancelledAnimations) {
-            cancelAnimation(animation);
-        }
+    // Animations in the order they were started, 0 to size() - 1
+    public int size() {
+        return mCount;
     }
 
-    public boolean isAnimationActive() {
-        if (activeAnimations != 0) {
-            oneMoreFrame = true;
-            return true;
-        } else if (oneMoreFrame) {
-            oneMoreFrame = false;
-            return true;
-        } else {
-            return false;
-        }
+    public int getX(int animation) {
+        return mX[animation];
     }
 
-    public ArrayList<AnimationCell> getAnimationCell(int x, int y) {
-        return field[x][y];
+    public int getY(int animation) {
+        return mY[animation];
     }
 
-    public void cancelAnimation(AnimationCell animation) {
-        if (animation.getX() == -1 && animation.getY() == -1) {
-            globalAnimation.remove(animation);
-        } else {
-            field[animation.getX()][animation.getY()].remove(animation);
-        }
+    public boolean isGlobal(int animation) {
+        return mX[animation] == -1 && mY[animation] == -1;
+    }
+
+    public int getAnimationType(int animation) {
+        return mTypes[animation];
+    }
+
+    public int getFromX(int animation) {
+        return mFromX[animation];
     }
 
+    public int getFromY(int animation) {
+        return mFromY[animation];
+    }
+
+    public long getLength(int animation) {
+        return mLengths[animation];
+    }
+
+    public long getDelay(int animation) {
+        return mDelays[animation];
+    }
 }
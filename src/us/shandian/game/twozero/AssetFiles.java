@@ -0,0 +1,51 @@
+package us.shandian.game.twozero;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/*
+ *
+ * Assets that have to be real files, to be mapped
+ * They are copied out of the apk once, and again after an update
+ *
+ */
+
+public class AssetFiles
+{
+    public static File extract(Context context, String asset) throws IOException {
+        File file = new File(context.getFilesDir(), asset);
+        File apk = new File(context.getPackageCodePath());
+        if (file.exists() && file.lastModified() >= apk.lastModified()) {
+            return file;
+        }
+
+        // Copy next to it first, a half copied table must never be mapped
+        File temp = new File(context.getFilesDir(), asset + ".tmp");
+        InputStream in = context.getAssets().open(asset);
+        try {
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                byte[] buffer = new byte[1 << 16];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot write " + file);
+        }
+        return file;
+    }
+}
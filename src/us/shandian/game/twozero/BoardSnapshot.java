@@ -0,0 +1,182 @@
+package us.shandian.game.twozero;
+
+/*
+ *
+ * One state of the game as it is drawn, taken after every change
+ * It never changes while it is held (see MainGame.acquireSnapshot),
+ * so a render thread can draw it while the game goes on without it
+ * Once nothing holds it the game fills it again, in the arrays it
+ * already has, so taking one after a move makes no garbage
+ * The animations are kept as they were started, and how far
+ * they have got is worked out from the time of the frame
+ *
+ */
+
+public final class BoardSnapshot
+{
+    public int width;
+    public int height;
+    public long score;
+    public long highScore;
+    public boolean won;
+    public boolean lose;
+
+    // System.nanoTime the animations started at
+    public long time;
+
+    // Tile values, x * height + y, 0 for none
+    private int[] mValues = new int[0];
+
+    // The animations of a cell are mFirst[cell] to mFirst[cell + 1] - 1,
+    // in the order they were started
+    private int[] mFirst = new int[0];
+    private int[] mTypes = new int[0];
+    private int[] mFromX = new int[0];
+    private int[] mFromY = new int[0];
+    private long[] mLengths = new long[0];
+    private long[] mDelays = new long[0];
+
+    // The fade over the board when the game ends, 0 long if there is none
+    private long mFadeLength;
+    private long mFadeDelay;
+
+    // Nanoseconds after time at which every animation is done
+    private long mEnd;
+
+    // Threads drawing it, guarded by the game's snapshot lock
+    int mUsers = 0;
+
+    // On the game's thread, only while nothing holds it
+    // The arrays are made again only when the board or the animations outgrow them
+    void set(MainGame game, long time) {
+        this.time = time;
+        width = game.numSquaresX;
+        height = game.numSquaresY;
+        score = game.score;
+        highScore = game.highScore;
+        won = game.won;
+        lose = game.lose;
+
+        int cells = width * height;
+        if (mValues.length < cells) {
+            mValues = new int[cells];
+            mFirst = new int[cells + 1];
+        }
+        for (int cell = 0; cell <= cells; cell++) {
+            mFirst[cell] = 0;
+        }
+
+        for (int xx = 0; xx < width; xx++) {
+            for (int yy = 0; yy < height; yy++) {
+                Tile tile = game.grid.field[xx][yy];
+                mValues[xx * height + yy] = tile == null ? 0 : tile.getValue();
+            }
+        }
+
+        // Sorted by cell, each cell's in the order they were started
+        AnimationGrid aGrid = game.aGrid;
+        int count = 0;
+        long fadeLength = 0;
+        long fadeDelay = 0;
+        long end = 0;
+        for (int a = 0; a < aGrid.size(); a++) {
+            long length = aGrid.getLength(a);
+            long delay = aGrid.getDelay(a);
+            end = Math.max(end, length + delay);
+            if (!aGrid.isGlobal(a)) {
+                mFirst[aGrid.getX(a) * height + aGrid.getY(a) + 1]++;
+                count++;
+            } else if (aGrid.getAnimationType(a) == MainGame.FADE_GLOBAL_ANIMATION) {
+                fadeLength = length;
+                fadeDelay = delay;
+            }
+        }
+        for (int cell = 0; cell < cells; cell++) {
+            mFirst[cell + 1] += mFirst[cell];
+        }
+
+        if (mTypes.length < count) {
+            // As many as the grid may ever hold, so this is done once per size
+            int capacity = Math.max(count, aGrid.capacity);
+            mTypes = new int[capacity];
+            mFromX = new int[capacity];
+            mFromY = new int[capacity];
+            mLengths = new long[capacity];
+            mDelays = new long[capacity];
+        }
+
+        // mFirst[cell] moves on past every animation put in, then is put back
+        for (int a = 0; a < aGrid.size(); a++) {
+            if (aGrid.isGlobal(a)) {
+                continue;
+            }
+            int i = mFirst[aGrid.getX(a) * height + aGrid.getY(a)]++;
+            mTypes[i] = aGrid.getAnimationType(a);
+            mFromX[i] = aGrid.getFromX(a);
+            mFromY[i] = aGrid.getFromY(a);
+            mLengths[i] = aGrid.getLength(a);
+            mDelays[i] = aGrid.getDelay(a);
+        }
+        for (int cell = cells; cell > 0; cell--) {
+            mFirst[cell] = mFirst[cell - 1];
+        }
+        mFirst[0] = 0;
+
+        mFadeLength = fadeLength;
+        mFadeDelay = fadeDelay;
+        mEnd = end;
+    }
+
+    public int getValue(int x, int y) {
+        return mValues[x * height + y];
+    }
+
+    // Animations of a cell, from first to last - 1
+    public int firstAnimation(int x, int y) {
+        return mFirst[x * height + y];
+    }
+
+    public int lastAnimation(int x, int y) {
+        return mFirst[x * height + y + 1];
+    }
+
+    public int getAnimationType(int animation) {
+        return mTypes[animation];
+    }
+
+    // Where a moving tile came from
+    public int getFromX(int animation) {
+        return mFromX[animation];
+    }
+
+    public int getFromY(int animation) {
+        return mFromY[animation];
+    }
+
+    // Started, its delay is over
+    public boolean isActive(int animation, long now) {
+        return now - time >= mDelays[animation];
+    }
+
+    // Over, and no longer drawn
+    public boolean isDone(int animation, long now) {
+        return mLengths[animation] + mDelays[animation] < now - time;
+    }
+
+    public double getPercentageDone(int animation, long now) {
+        return Math.max(0, 1.0 * (now - time - mDelays[animation]) / mLengths[animation]);
+    }
+
+    // How far the end of game fade has got, 1 if there is none
+    public double getFade(long now) {
+        if (mFadeLength == 0 || mFadeLength + mFadeDelay < now - time) {
+            return 1;
+        }
+        return Math.max(0, 1.0 * (now - time - mFadeDelay) / mFadeLength);
+    }
+
+    // Something still moves, another frame is needed
+    public boolean isAnimating(long now) {
+        return now - time <= mEnd;
+    }
+}
@@ -0,0 +1,169 @@
+package us.shandian.game.twozero;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/*
+ *
+ * Saves the game after every change, see GameState
+ * Where the game moves it is only copied, into one of two copies
+ * kept for good, the history as whole arrays; the bytes are made
+ * from the copy by a thread of their own, into one buffer, and written
+ * next to the saved game, then renamed over it, so a save cut short
+ * never loses the one before
+ * A copy not written yet is copied over again, only the latest is saved
+ *
+ */
+
+public class GameSaver
+{
+    static final String TAG = "GameSaver";
+    static final String FILE = "state.bin";
+
+    // One for the whole process, activities come and go
+    static HandlerThread sThread;
+    static Handler sHandler;
+
+    final File mFile;
+    final int mVariety;
+
+    // Waiting for the saver's thread, and the one it is not writing
+    GameState mPending;
+    GameState mFree;
+
+    // Only touched on the saver's thread
+    final ByteArrayOutputStream mBuffer = new ByteArrayOutputStream();
+    final DataOutputStream mOut = new DataOutputStream(mBuffer);
+
+    final Runnable mWrite = new Runnable() {
+        @Override
+        public void run() {
+            GameState state;
+            synchronized (GameSaver.this) {
+                state = mPending;
+                mPending = null;
+            }
+            if (state != null) {
+                write(state);
+                synchronized (GameSaver.this) {
+                    mFree = state;
+                }
+            }
+        }
+    };
+
+    public GameSaver(Context context, int variety) {
+        mFile = new File(context.getFilesDir(), FILE);
+        mVariety = variety;
+    }
+
+    // The thread every write to the disk is done on
+    static synchronized Handler getHandler() {
+        if (sThread == null) {
+            sThread = new HandlerThread("Saver");
+            sThread.start();
+            sHandler = new Handler(sThread.getLooper());
+        }
+        return sHandler;
+    }
+
+    // Puts the saved game into game, false if there is none of this variety and size
+    // A few bytes read once at start, before anything is drawn
+    public boolean load(Game game) {
+        if (!mFile.exists()) {
+            return false;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(mFile));
+            return GameState.read(game, mVariety, in);
+        } catch (IOException e) {
+            Log.w(TAG, "Error loading the saved game, starting a new one", e);
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Already read
+                }
+            }
+        }
+    }
+
+    // On the game's thread, returns once the game is copied
+    public synchronized void save(Game game) {
+        if (mPending != null) {
+            // Not taken yet, the write already posted takes this one
+            mPending.copy(game, mVariety);
+            return;
+        }
+
+        GameState state = mFree;
+        mFree = null;
+        if (state == null) {
+            // The other one is being written
+            state = new GameState();
+        }
+        state.copy(game, mVariety);
+        mPending = state;
+        getHandler().post(mWrite);
+    }
+
+    private void write(GameState state) {
+        try {
+            mBuffer.reset();
+            state.write(mOut);
+            mOut.flush();
+            write(mFile, mBuffer);
+        } catch (IOException e) {
+            Log.e(TAG, "Error saving the game", e);
+        }
+    }
+
+    // Next to file first, then renamed over it, on the saver's thread
+    static void write(File file, byte[] bytes) throws IOException {
+        write(file, bytes, null);
+    }
+
+    // Straight from the buffer, without copying it out
+    static void write(File file, ByteArrayOutputStream buffer) throws IOException {
+        write(file, null, buffer);
+    }
+
+    private static void write(File file, byte[] bytes, ByteArrayOutputStream buffer) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                if (bytes != null) {
+                    out.write(bytes);
+                } else {
+                    buffer.writeTo(out);
+                }
+                // On the disk before it replaces the old one
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+
+            if (!temp.renameTo(file)) {
+                throw new IOException("Cannot rename " + temp);
+            }
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+    }
+}
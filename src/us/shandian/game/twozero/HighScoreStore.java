@@ -0,0 +1,234 @@
+package us.shandian.game.twozero;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+/*
+ *
+ * The best scores, a leaderboard for every variety, board size
+ * and player (the player alone, or with the AI's help)
+ * Read once when the app starts and then only kept in memory,
+ * written on the saver's thread a while after they change,
+ * so nothing on the way of a move or a frame waits for the disk
+ *   int magic, byte version, long legacy best, short boards,
+ *   then per board: byte variety, byte size, byte ai, byte count,
+ *   count times long score, long time (ms since 1970)
+ *
+ */
+
+public class HighScoreStore
+{
+    static final String TAG = "HighScoreStore";
+    static final String FILE = "scores.bin";
+    static final int MAGIC = 0x48494748;
+    static final int VERSION = 1;
+
+    // Entries kept per leaderboard
+    public static final int TOP = 10;
+
+    // Changes that come close together are written at once
+    static final long FLUSH_DELAY = 1000;
+
+    // The single high score kept in the preferences before, shared by every board
+    static final String LEGACY_HIGH_SCORE = "high score";
+
+    static HighScoreStore sInstance;
+
+    final File mFile;
+    final HashMap<Integer, Leaderboard> mBoards = new HashMap<Integer, Leaderboard>();
+    long mLegacyBest = 0;
+    boolean mFlushPosted = false;
+
+    final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    static class Leaderboard {
+        final int variety;
+        final int size;
+        final boolean ai;
+        int count = 0;
+        final long[] scores = new long[TOP];
+        final long[] times = new long[TOP];
+
+        Leaderboard(int variety, int size, boolean ai) {
+            this.variety = variety;
+            this.size = size;
+            this.ai = ai;
+        }
+
+        // Rank the score got, -1 if it is not good enough
+        int insert(long score, long time) {
+            int rank = count;
+            while (rank > 0 && scores[rank - 1] < score) {
+                rank--;
+            }
+            if (rank >= TOP) {
+                return -1;
+            }
+
+            int moved = Math.min(count, TOP - 1) - rank;
+            System.arraycopy(scores, rank, scores, rank + 1, moved);
+            System.arraycopy(times, rank, times, rank + 1, moved);
+            scores[rank] = score;
+            times[rank] = time;
+            count = Math.min(count + 1, TOP);
+            return rank;
+        }
+    }
+
+    public static synchronized HighScoreStore get(Context context) {
+        if (sInstance == null) {
+            sInstance = new HighScoreStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private HighScoreStore(Context context) {
+        mFile = new File(context.getFilesDir(), FILE);
+        if (mFile.exists()) {
+            load();
+        } else {
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+            mLegacyBest = Math.max(0, prefs.getLong(LEGACY_HIGH_SCORE, 0));
+        }
+    }
+
+    private static int key(int variety, int size, boolean ai) {
+        return variety << 16 | size << 8 | (ai ? 1 : 0);
+    }
+
+    // Best score of a variety and size, whoever played
+    public synchronized long getBest(int variety, int size) {
+        long best = mLegacyBest;
+        for (int ai = 0; ai <= 1; ai++) {
+            Leaderboard board = mBoards.get(key(variety, size, ai == 1));
+            if (board != null && board.count > 0) {
+                best = Math.max(best, board.scores[0]);
+            }
+        }
+        return best;
+    }
+
+    public synchronized int getCount(int variety, int size, boolean ai) {
+        Leaderboard board = mBoards.get(key(variety, size, ai));
+        return board == null ? 0 : board.count;
+    }
+
+    // rank from 0, the best
+    public synchronized long getScore(int variety, int size, boolean ai, int rank) {
+        return mBoards.get(key(variety, size, ai)).scores[rank];
+    }
+
+    public synchronized long getTime(int variety, int size, boolean ai, int rank) {
+        return mBoards.get(key(variety, size, ai)).times[rank];
+    }
+
+    // The rank a finished game got, -1 if none; written to the disk later
+    public synchronized int record(int variety, int size, boolean ai, long score, long time) {
+        if (score <= 0) {
+            return -1;
+        }
+
+        int key = key(variety, size, ai);
+        Leaderboard board = mBoards.get(key);
+        if (board == null) {
+            board = new Leaderboard(variety, size, ai);
+            mBoards.put(key, board);
+        }
+
+        int rank = board.insert(score, time);
+        if (rank >= 0 && !mFlushPosted) {
+            mFlushPosted = true;
+            GameSaver.getHandler().postDelayed(mFlush, FLUSH_DELAY);
+        }
+        return rank;
+    }
+
+    // On the saver's thread
+    private void flush() {
+        byte[] bytes;
+        synchronized (this) {
+            mFlushPosted = false;
+            bytes = toBytes();
+        }
+
+        try {
+            GameSaver.write(mFile, bytes);
+        } catch (IOException e) {
+            Log.e(TAG, "Error saving the high scores", e);
+        }
+    }
+
+    private byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(mLegacyBest);
+            out.writeShort(mBoards.size());
+            for (Leaderboard board : mBoards.values()) {
+                out.writeByte(board.variety);
+                out.writeByte(board.size);
+                out.writeByte(board.ai ? 1 : 0);
+                out.writeByte(board.count);
+                for (int i = 0; i < board.count; i++) {
+                    out.writeLong(board.scores[i]);
+                    out.writeLong(board.times[i]);
+                }
+            }
+        } catch (IOException e) {
+            // Not from memory
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private void load() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(mFile));
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                throw new IOException("Not a high score file");
+            }
+
+            mLegacyBest = in.readLong();
+            int boards = in.readUnsignedShort();
+            for (int i = 0; i < boards; i++) {
+                int variety = in.readUnsignedByte();
+                int size = in.readUnsignedByte();
+                boolean ai = in.readUnsignedByte() != 0;
+                int count = in.readUnsignedByte();
+                Leaderboard board = new Leaderboard(variety, size, ai);
+                for (int j = 0; j < count; j++) {
+                    board.insert(in.readLong(), in.readLong());
+                }
+                mBoards.put(key(variety, size, ai), board);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Error loading the high scores", e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Already read
+                }
+            }
+        }
+    }
+}
@@ -152,8 +152,7 @@ public class InputListener implements View.OnTouchListener, View.OnKeyListener {
                         int eY = sY + mView.cellSize;
                         
                         if (inRange(sX, x, eX) && inRange(sY, y, eY)) {
-                            mView.game.addRandomTile(cell);
-                            mView.invalidate();
+                            mView.game.placeTile(cell);
                             mView.startAi();
                             break;
                         }
@@ -16,8 +16,6 @@ import us.shandian.game.twozero.settings.SettingsActivity;
 
 public class MainActivity extends Activity {
 
-    public static boolean save = true;
-    
     MainView view;
     
     @Override
@@ -31,31 +29,29 @@ public class MainActivity extends Activity {
         
         view = new MainView(getBaseContext());
         
-        // Restore state
-        SharedPreferences prefs = getSharedPreferences("state", Context.MODE_WORLD_READABLE);
-        int size = prefs.getInt("size", 0);
-        if (size == view.game.numSquaresX) {
-            Tile[][] field = view.game.grid.field;
-            String[] saveState = new String[field[0].length];
-            for (int xx = 0; xx < saveState.length; xx++) {
-                saveState[xx] = prefs.getString("" + xx, "");
-            }
-            for (int xx = 0; xx < saveState.length; xx++) {
-                String[] array = saveState[xx].split("\\|");
-                for (int yy = 0; yy < array.length; yy++) {
-                    if (!array[yy].startsWith("0")) {
-                        view.game.grid.field[xx][yy] = new Tile(xx, yy, Integer.valueOf(array[yy]));
-                    } else {
-                        view.game.grid.field[xx][yy] = null;
-                    }
-                }
-            }
-            view.game.score = prefs.getLong("score", 0);
-            view.game.highScore = prefs.getLong("high score", 0);
-            view.game.won = prefs.getBoolean("won", false);
-            view.game.lose = prefs.getBoolean("lose", false);
+        // Restore state, from before saves were binary if there is nothing newer
+        GameSaver saver = new GameSaver(this, SettingsProvider.getInt(SettingsProvider.KEY_VARIETY, 0));
+        boolean restored = saver.load(view.game) || restoreLegacyState();
+        view.game.setSaver(saver);
+        view.game.setReplayLog(ReplayLog.get(this));
+        if (restored) {
+            view.game.refresh();
+        } else {
+            // Again, now that it goes into the replay log
+            view.game.newGame();
+        }
+        
+        if (SettingsProvider.getBoolean(SettingsProvider.KEY_RENDER_THREAD, false)) {
+            setContentView(new RenderSurface(this, view));
+        } else {
+            setContentView(view);
         }
-        setContentView(view);
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        ReplayLog.get(this).flush();
     }
 
     @Override
@@ -70,14 +66,17 @@ public class MainActivity extends Activity {
         
         if (view.inverseMode) {
             menu.findItem(R.id.menu_undo).setEnabled(false);
+            menu.findItem(R.id.menu_redo).setEnabled(false);
             menu.findItem(R.id.menu_autorun).setEnabled(false);
             menu.findItem(R.id.menu_stopautorun).setEnabled(false);
         } else if (view.aiRunning) {
             menu.findItem(R.id.menu_undo).setEnabled(false);
+            menu.findItem(R.id.menu_redo).setEnabled(false);
             menu.findItem(R.id.menu_autorun).setEnabled(false);
             menu.findItem(R.id.menu_stopautorun).setEnabled(true);
         } else {
-            menu.findItem(R.id.menu_undo).setEnabled(view.game.grid.canRevert);
+            menu.findItem(R.id.menu_undo).setEnabled(view.game.canUndo());
+            menu.findItem(R.id.menu_redo).setEnabled(view.game.canRedo());
             menu.findItem(R.id.menu_autorun).setEnabled(true);
             menu.findItem(R.id.menu_stopautorun).setEnabled(false);
         }
@@ -91,6 +90,9 @@ public class MainActivity extends Activity {
             case R.id.menu_undo:
                 view.game.revertState();
                 return true;
+            case R.id.menu_redo:
+                view.game.redoState();
+                return true;
             case R.id.menu_settings:
                 Intent i = new Intent();
                 i.setAction(Intent.ACTION_MAIN);
@@ -107,38 +109,38 @@ public class MainActivity extends Activity {
         return true;
     }
 
-    @Override
-    public void onPause() {
-        super.onPause();
-        
-        // If variety switched, do not save
-        if (!save) return;
-        
+    // The strings onPause used to keep, read once to carry the game over
+    private boolean restoreLegacyState() {
         SharedPreferences prefs = getSharedPreferences("state", Context.MODE_WORLD_READABLE);
-        SharedPreferences.Editor edit = prefs.edit();
+        int size = prefs.getInt("size", 0);
+        if (size != view.game.numSquaresX) {
+            return false;
+        }
+        
         Tile[][] field = view.game.grid.field;
         String[] saveState = new String[field[0].length];
-        for (int xx = 0; xx < field.length; xx++) {
-            saveState[xx] = new String();
-            for (int yy = 0; yy < field[0].length; yy++) {
-                if (field[xx][yy] != null) {
-                    saveState[xx] += String.valueOf(field[xx][yy].getValue());
+        for (int xx = 0; xx < saveState.length; xx++) {
+            saveState[xx] = prefs.getString("" + xx, "");
+        }
+        for (int xx = 0; xx < saveState.length; xx++) {
+            String[] array = saveState[xx].split("\\|");
+            for (int yy = 0; yy < array.length; yy++) {
+                Tile tile = new Tile(xx, yy, 0);
+                if (!array[yy].startsWith("0")) {
+                    tile.setValue(Integer.valueOf(array[yy]));
+                    view.game.grid.insertTile(tile);
                 } else {
-                    saveState[xx] += "0";
-                }
-                if (yy < field[0].length - 1) {
-                    saveState[xx] += "|";
+                    view.game.grid.removeTile(tile);
                 }
             }
         }
-        for (int xx = 0; xx < saveState.length; xx++) {
-            edit.putString("" + xx, saveState[xx]);
-        }
-        edit.putLong("score", view.game.score);
-        edit.putLong("high score", view.game.highScore);
-        edit.putBoolean("won", view.game.won);
-        edit.putBoolean("lose", view.game.lose);
-        edit.putInt("size", view.game.numSquaresX);
-        edit.commit();
+        view.game.score = prefs.getLong("score", 0);
+        view.game.won = prefs.getBoolean("won", false);
+        view.game.lose = prefs.getBoolean("lose", false);
+        // Not the board its seed started
+        view.game.replayable = false;
+        
+        prefs.edit().clear().commit();
+        return true;
     }
 }
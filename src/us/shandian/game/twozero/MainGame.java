@@ -1,32 +1,44 @@
 package us.shandian.game.twozero;
 
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.preference.PreferenceManager;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 
-public class MainGame {
+import us.shandian.game.twozero.settings.SettingsProvider;
+
+/*
+ *
+ * The game as the app plays it
+ * The rules are in Game, this adds the animations,
+ * the high scores and refreshing the view
+ * After every change a BoardSnapshot is taken, it is all the view draws,
+ * and the game is saved if there is a GameSaver
+ * Snapshots are reused once no thread holds them, a few are enough
+ * Games started from a seed go into the ReplayLog as they are played
+ *
+ */
+
+public class MainGame extends Game implements GameListener {
 
-    public Grid grid;
     public AnimationGrid aGrid;
-    public boolean emulating = false;
-    static  int numSquaresX = 4;
-    static int numSquaresY = 4;
-    final int startTiles = 2;
-    
-    long score = 0;
-    long lastScore = 0;
+
     long highScore = 0;
-    boolean won = false;
-    boolean lose = false;
+
+    HighScoreStore mScores;
+    int mVariety;
 
     Context mContext;
 
     MainView mView;
 
+    volatile BoardSnapshot mSnapshot;
+    // Every snapshot taken so far, also the lock of their users
+    final ArrayList<BoardSnapshot> mSnapshots = new ArrayList<BoardSnapshot>();
+
+    GameSaver mSaver;
+
+    ReplayLog mReplays;
+
     static final int SPAWN_ANIMATION = -1;
     static final int MOVE_ANIMATION = 0;
     static final int MERGE_ANIMATION = 1;
@@ -37,282 +49,197 @@ public class MainGame {
     static final long SPAWN_ANIMATION_TIME = (int) (MainView.BASE_ANIMATION_TIME * 1.5);
     static final long NOTIFICATION_ANIMATION_TIME = MainView.BASE_ANIMATION_TIME * 5;
     static final long NOTIFICATION_DELAY_TIME = MOVE_ANIMATION_TIME + SPAWN_ANIMATION_TIME;
-    static final String HIGH_SCORE = "high score";
 
     public MainGame(Context context, MainView view) {
+        super(4, 4, MainView.goalExponent);
         mContext = context;
         mView = view;
+        mScores = HighScoreStore.get(context);
+        mVariety = SettingsProvider.getInt(SettingsProvider.KEY_VARIETY, 0);
+        setListener(this);
     }
 
-    public void newGame() {
-        grid = new Grid(numSquaresX, numSquaresY);
-        aGrid = new AnimationGrid(numSquaresX, numSquaresY);
-        highScore = getHighScore();
-        if (score >= highScore) {
-            highScore = score;
-            recordHighScore();
+    @Override
+    public void newGame(long seed) {
+        if (aGrid == null || !aGrid.fits(numSquaresX, numSquaresY)) {
+            aGrid = new AnimationGrid(numSquaresX, numSquaresY);
+        } else {
+            aGrid.clear();
         }
-        score = 0;
-        won = false;
-        lose = false;
-        addStartTiles();
+        // A game left before its end counts too
+        if (!won && !lose) {
+            recordScore();
+        }
+        spawnAfterMove = !MainView.inverseMode;
+        super.newGame(seed);
+        if (mReplays != null) {
+            mReplays.startGame(this, mVariety);
+        }
+        highScore = mScores.getBest(mVariety, numSquaresX);
         mView.refreshLastTime = true;
-        mView.resyncTime();
-        mView.postInvalidate();
+        publish();
     }
 
-    public void addStartTiles() {
-        for (int xx = 0; xx < startTiles; xx++) {
-            this.addRandomTile();
+    // Hands the game as it is now over to the view and the saver
+    public void publish() {
+        BoardSnapshot snapshot = freeSnapshot();
+        snapshot.set(this, System.nanoTime());
+        synchronized (mSnapshots) {
+            mSnapshot = snapshot;
+        }
+        mView.refresh();
+        if (mSaver != null) {
+            mSaver.save(this);
         }
     }
 
-    public void addRandomTile() {
-        if (grid.isCellsAvailable()) {
-            addRandomTile(grid.randomAvailableCell());
-        }
+    public void setSaver(GameSaver saver) {
+        mSaver = saver;
     }
-    
-    public void addRandomTile(Cell cell) {
-        int value = Math.random() < 0.9 ? 2 : 4;
-        Tile tile = new Tile(cell, value);
-        grid.insertTile(tile);
-        if (!emulating) aGrid.startAnimation(tile.getX(), tile.getY(), SPAWN_ANIMATION,
-                                             SPAWN_ANIMATION_TIME, MOVE_ANIMATION_TIME, null); //Direction: -1 = EXPANDING
+
+    // From the next game on, and the one going on if it came from a seed
+    public void setReplayLog(ReplayLog replays) {
+        mReplays = replays;
     }
 
-    public void recordHighScore() {
-        SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(mContext);
-        SharedPreferences.Editor editor = settings.edit();
-        editor.putLong(HIGH_SCORE, highScore);
-        editor.commit();
+    private boolean logging() {
+        return mReplays != null && isReplayable();
     }
 
-    public long getHighScore() {
-        SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(mContext);
-        return settings.getLong(HIGH_SCORE, -1);
+    // The latest snapshot, on the game's thread: it is not filled again
+    // until another is published, which only this thread does
+    public BoardSnapshot getSnapshot() {
+        return mSnapshot;
     }
 
-    public void prepareTiles() {
-        for (Tile[] array : grid.field) {
-            for (Tile tile : array) {
-                if (grid.isCellOccupied(tile)) {
-                    tile.setMergedFrom(null);
-                    tile.savePosition();
-                }
-            }
+    // The latest snapshot, from any thread, kept as it is until released
+    public BoardSnapshot acquireSnapshot() {
+        synchronized (mSnapshots) {
+            BoardSnapshot snapshot = mSnapshot;
+            snapshot.mUsers++;
+            return snapshot;
         }
     }
 
-    public void moveTile(Tile tile, Cell cell) {
-        grid.field[tile.getX()][tile.getY()] = null;
-        grid.field[cell.getX()][cell.getY()] = tile;
-        tile.updatePosition(cell);
-    }
-    
-    public void saveState() {
-        grid.saveTiles();
-        lastScore = score;
-    }
-    
-    public void revertState() {
-        aGrid = new AnimationGrid(numSquaresX, numSquaresY);
-        grid.revertTiles();
-        score = lastScore;
-        
-        if (!emulating) {
-            mView.refreshLastTime = true;
-            mView.resyncTime();
-            mView.invalidate();
+    public void releaseSnapshot(BoardSnapshot snapshot) {
+        synchronized (mSnapshots) {
+            snapshot.mUsers--;
         }
     }
 
-    public boolean move (int direction) {
-        saveState();
-        
-        if (!emulating) aGrid = new AnimationGrid(numSquaresX, numSquaresY);
-        // 0: up, 1: right, 2: down, 3: left
-        if (lose || won) {
-            return false;
-        }
-        Cell vector = getVector(direction);
-        List<Integer> traversalsX = buildTraversalsX(vector);
-        List<Integer> traversalsY = buildTraversalsY(vector);
-        boolean moved = false;
-
-        prepareTiles();
-
-        for (int xx: traversalsX) {
-            for (int yy: traversalsY) {
-                Cell cell = new Cell(xx, yy);
-                Tile tile = grid.getCellContent(cell);
-
-                if (tile != null) {
-                    Cell[] positions = findFarthestPosition(cell, vector);
-                    Tile next = grid.getCellContent(positions[1]);
-
-                    if (next != null && next.getValue() == tile.getValue() && next.getMergedFrom() == null) {
-                        Tile merged = new Tile(positions[1], tile.getValue() * 2);
-                        Tile[] temp = {tile, next};
-                        merged.setMergedFrom(temp);
-
-                        grid.insertTile(merged);
-                        grid.removeTile(tile);
-
-                        // Converge the two tiles' positions
-                        tile.updatePosition(positions[1]);
-
-                        if (!emulating) {
-                            int[] extras = {xx, yy};
-                            aGrid.startAnimation(merged.getX(), merged.getY(), MOVE_ANIMATION,
-                                    MOVE_ANIMATION_TIME, 0, extras); //Direction: 0 = MOVING MERGED
-                            aGrid.startAnimation(merged.getX(), merged.getY(), MERGE_ANIMATION,
-                                    SPAWN_ANIMATION_TIME, MOVE_ANIMATION_TIME, null);
-                        }
-
-                        // Update the score
-                        score = score + merged.getValue();
-                        highScore = Math.max(score, highScore);
-
-                        // The mighty max tile
-                        if (merged.getValue() == MainView.maxValue) {
-                            won = true;
-                            endGame();
-                        }
-                    } else {
-                        moveTile(tile, positions[0]);
-                        int[] extras = {xx, yy, 0};
-                        if (!emulating) aGrid.startAnimation(positions[0].getX(), positions[0].getY(), MOVE_ANIMATION, MOVE_ANIMATION_TIME, 0, extras); //Direction: 1 = MOVING NO MERGE
-                    }
-
-                    if (!positionsEqual(cell, tile)) {
-                        moved = true;
-                    }
+    // One neither held nor the latest, so no thread can be reading it
+    private BoardSnapshot freeSnapshot() {
+        synchronized (mSnapshots) {
+            for (int i = 0; i < mSnapshots.size(); i++) {
+                BoardSnapshot snapshot = mSnapshots.get(i);
+                if (snapshot != mSnapshot && snapshot.mUsers == 0) {
+                    return snapshot;
                 }
             }
+            BoardSnapshot snapshot = new BoardSnapshot();
+            mSnapshots.add(snapshot);
+            return snapshot;
         }
+    }
 
-        if (moved) {
-            if (!emulating && !MainView.inverseMode) {
-                addRandomTile();
-            }
-
-            if (!movesAvailable()) {
-                lose = true;
-                endGame();
-            }
-
-        }
-        
-        if (!emulating) {
-            mView.resyncTime();
-            mView.postInvalidate();
-        }
-        
-        return moved;
+    // Shows the board as it is now, without animations
+    public void refresh() {
+        aGrid.clear();
+        publish();
     }
 
-    public void endGame() {
-        if (emulating) return;
-        
-        aGrid.startAnimation(-1, -1, FADE_GLOBAL_ANIMATION, NOTIFICATION_ANIMATION_TIME, NOTIFICATION_DELAY_TIME, null);
-        if (score >= highScore) {
-            highScore = score;
-            recordHighScore();
+    // A tile put down by the player, in inverse mode
+    public void placeTile(Cell cell) {
+        aGrid.clear();
+        addRandomTile(cell);
+        if (logging()) {
+            mReplays.place(cell.getX(), cell.getY());
         }
-        
-        grid.canRevert = false;
+        publish();
     }
 
-    public Cell getVector(int direction) {
-        Cell[] map = {
-                new Cell(0, -1), // up
-                new Cell(1, 0),  // right
-                new Cell(0, 1),  // down
-                new Cell(-1, 0)  // left
-        };
-        return map[direction];
+    // Into the leaderboard of whoever played it, only in memory for now
+    public void recordScore() {
+        mScores.record(mVariety, numSquaresX, aiPlayed, score, System.currentTimeMillis());
+        highScore = Math.max(score, highScore);
     }
 
-    public List<Integer> buildTraversalsX(Cell vector) {
-        List<Integer> traversals = new ArrayList<Integer>();
-
-        for (int xx = 0; xx < numSquaresX; xx++) {
-            traversals.add(xx);
+    @Override
+    public boolean revertState() {
+        boolean reverted = super.revertState();
+        if (reverted && logging()) {
+            mReplays.undo();
         }
-        if (vector.getX() == 1) {
-            Collections.reverse(traversals);
+
+        mView.refreshLastTime = true;
+        refresh();
+        return reverted;
+    }
+
+    @Override
+    public boolean redoState() {
+        boolean redone = super.redoState();
+        if (redone && logging()) {
+            mReplays.redo();
         }
 
-       return traversals;
+        mView.refreshLastTime = true;
+        refresh();
+        return redone;
     }
 
-    public List<Integer> buildTraversalsY(Cell vector) {
-        List<Integer> traversals = new ArrayList<Integer>();
+    @Override
+    public boolean move (int direction) {
+        aGrid.clear();
 
-        for (int xx = 0; xx <numSquaresY; xx++) {
-            traversals.add(xx);
-        }
-        if (vector.getY() == 1) {
-            Collections.reverse(traversals);
+        // In inverse mode the player adds the tiles
+        spawnAfterMove = !MainView.inverseMode;
+
+        boolean moved = super.move(direction);
+        if (moved && logging()) {
+            mReplays.move(direction);
+            if (won || lose) {
+                mReplays.end(score);
+            }
         }
+        highScore = Math.max(score, highScore);
 
-        return traversals;
-    }
+        publish();
 
-    public Cell[] findFarthestPosition(Cell cell, Cell vector) {
-        Cell previous;
-        Cell nextCell = new Cell(cell.getX(), cell.getY());
-        do {
-            previous = nextCell;
-            nextCell = new Cell(previous.getX() + vector.getX(),
-                    previous.getY() + vector.getY());
-        } while (grid.isCellWithinBounds(nextCell) && grid.isCellAvailable(nextCell));
-
-        Cell[] answer = {previous, nextCell};
-        return answer;
-    }
-    public boolean movesAvailable() {
-        return grid.isCellsAvailable() || tileMatchesAvailable();
+        return moved;
     }
-    public boolean tileMatchesAvailable() {
-        Tile tile;
 
-        for (int xx = 0; xx < numSquaresX; xx++) {
-            for (int yy = 0; yy < numSquaresY; yy++) {
-                tile = grid.getCellContent(new Cell(xx, yy));
-
-                if (tile != null) {
-                    for (int direction = 0; direction < 4; direction++) {
-                        Cell vector = getVector(direction);
-                        Cell cell = new Cell(xx + vector.getX(), yy + vector.getY());
+    @Override
+    public void endGame() {
+        super.endGame();
+        recordScore();
+    }
 
-                        Tile other = grid.getCellContent(cell);
+    @Override
+    public void onTileSpawned(int x, int y, int value) {
+        aGrid.startAnimation(x, y, SPAWN_ANIMATION,
+                SPAWN_ANIMATION_TIME, MOVE_ANIMATION_TIME, -1, -1); //Direction: -1 = EXPANDING
+    }
 
-                        if (other != null && other.getValue() == tile.getValue()) {
-                            return true;
-                        }
-                    }
-                }
-            }
-        }
+    @Override
+    public void onTileMoved(int fromX, int fromY, int toX, int toY, boolean merged) {
+        aGrid.startAnimation(toX, toY, MOVE_ANIMATION,
+                MOVE_ANIMATION_TIME, 0, fromX, fromY); //Direction: 0 = MOVING
+    }
 
-        return false;
+    @Override
+    public void onTileMerged(int x, int y, int value) {
+        aGrid.startAnimation(x, y, MERGE_ANIMATION,
+                SPAWN_ANIMATION_TIME, MOVE_ANIMATION_TIME, -1, -1);
     }
 
-    public boolean positionsEqual(Cell first, Cell second) {
-        return first.getX() == second.getX() && first.getY() == second.getY();
+    @Override
+    public void onGameWon() {
+        aGrid.startAnimation(-1, -1, FADE_GLOBAL_ANIMATION, NOTIFICATION_ANIMATION_TIME, NOTIFICATION_DELAY_TIME, -1, -1);
     }
-    
-    // Only for emulation
+
     @Override
-    public MainGame clone() {
-        MainGame newGame = new MainGame(mContext, null);
-        
-        newGame.grid = grid.clone();
-        newGame.score = score;
-        newGame.emulating = true;
-        
-        return newGame;
+    public void onGameLost() {
+        aGrid.startAnimation(-1, -1, FADE_GLOBAL_ANIMATION, NOTIFICATION_ANIMATION_TIME, NOTIFICATION_DELAY_TIME, -1, -1);
     }
 }
@@ -5,25 +5,29 @@ import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
-import android.graphics.drawable.BitmapDrawable;
+import android.util.Log;
 import android.view.View;
 import android.os.Handler;
 import android.os.Message;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.InterruptedException;
-import java.util.ArrayList;
 import java.util.Random;
-import java.util.ConcurrentModificationException;
 
 import us.shandian.game.twozero.settings.SettingsProvider;
 
 public class MainView extends View
 {
+    static final String TAG = "MainView";
+
     Paint paint = new Paint();
     public MainGame game;
     AI ai;
+    Weights weights = Weights.DEFAULT;
     InputListener listener;
 
     boolean getScreenSize = true;
@@ -36,6 +40,7 @@ public class MainView extends View
     int boardMiddleY = 0;
     Drawable backgroundRectangle;
     Drawable[] cellRectangle = new Drawable[12];
+    TileAtlas atlas;
     Drawable settingsIcon;
     Drawable lightUpRectangle;
     Drawable fadeRectangle;
@@ -65,8 +70,6 @@ public class MainView extends View
     static int sXNewGame;
 
     static int iconSize;
-    long lastFPSTime = System.nanoTime();
-    long currentTime = System.nanoTime();
 
     float titleTextSize;
     float bodyTextSize;
@@ -79,7 +82,8 @@ public class MainView extends View
     String highScore, score, youWin, gameOver, instructions = "";
 
     String[] tileTexts;
-    static int maxValue;
+    // log2 of the tile that wins, one level per tile text
+    static int goalExponent;
     
     public static boolean inverseMode = false;
     
@@ -91,15 +95,24 @@ public class MainView extends View
     static final float MERGING_ACCELERATION = (float) 0.6;
     static final float MAX_VELOCITY = (float) (MERGING_ACCELERATION * 0.5); // v = at (t = 0.5)
     
+    // Milliseconds between two moves of the AI
+    static final long AI_MOVE_INTERVAL = 200;
+    
+    static final String WEIGHTS_ASSET = "weights.properties";
+    static final String NETWORK_ASSET = "ntuple.bin";
+    
+    // Loaded the first time the AI needs it, null if not shipped
+    static NTupleNetwork network;
+    static boolean networkLoaded = false;
+    
     Handler aiHandler = new Handler() {
 
         @Override
         public void handleMessage(Message msg) {
+            game.aiPlayed = true;
             if (!game.move((int) msg.obj)) {
                 // If not moved, random move
                 this.sendMessage(this.obtainMessage(0, Math.abs(new Random().nextInt()) % 4));
-            } else {
-                invalidate();
             }
         }
     };
@@ -124,8 +137,17 @@ public class MainView extends View
                 }
 
                 try {
-                    Thread.sleep(200);
+                    // While the move is shown, think about the next one
+                    long next = System.currentTimeMillis() + AI_MOVE_INTERVAL;
+                    ai.ponder(next);
+                    long wait = next - System.currentTimeMillis();
+                    if (wait > 0) {
+                        Thread.sleep(wait);
+                    } else if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
                 } catch (InterruptedException e) {
+                    ai.shutdown();
                     ai = null;
                     break;
                 }
@@ -137,40 +159,132 @@ public class MainView extends View
     
     boolean aiRunning = false;
     
+    // Draws instead of onDraw when there is one
+    RenderSurface surface;
+    
+    // The last frame onDraw made, held until the next, and the part of the view to draw again
+    BoardSnapshot drawn;
+    long drawnTime;
+    final Rect dirty = new Rect();
+    
     @Override
     protected void onSizeChanged(int width, int height, int oldw, int oldh)
     {
         super.onSizeChanged(width, height, oldw, oldh);
         getLayout(width, height);
+        createTileAtlas();
         createBackgroundBitmap(width, height);
     }
     
     @Override
     public void onDraw(Canvas canvas) {
+        BoardSnapshot snapshot = game.acquireSnapshot();
+        long now = System.nanoTime();
+        drawFrame(canvas, snapshot, now);
+        if (drawn != null) {
+            game.releaseSnapshot(drawn);
+        }
+        drawn = snapshot;
+        drawnTime = now;
+        
+        if (snapshot.isAnimating(now)) {
+            // Refresh the animated cells only
+            dirty.setEmpty();
+            if (getDirty(snapshot, now, snapshot, now, dirty)) {
+                invalidate(dirty);
+            } else {
+                invalidate();
+            }
+        } else if ((snapshot.won || snapshot.lose) && refreshLastTime) {
+            // Refresh last time when game end
+            invalidate();
+            refreshLastTime = false;
+        }
+    }
+    
+    // The whole frame, as the snapshot is at the time now (System.nanoTime)
+    public void drawFrame(Canvas canvas, BoardSnapshot snapshot, long now) {
         //Reset the transparency of the screen
 
         canvas.drawBitmap(background, 0, 0, paint);
 
-        drawScoreText(canvas);
+        drawScoreText(canvas, snapshot);
 
-        if ((game.won || game.lose) && !game.aGrid.isAnimationActive()) {
-            drawNewGameButton(canvas);
+        if ((snapshot.won || snapshot.lose) && !snapshot.isAnimating(now)) {
+            drawNewGameButton(canvas, true);
         }
 
-        drawCells(canvas);
+        drawCells(canvas, snapshot, now);
 
-        drawEndGameState(canvas);
+        drawEndGameState(canvas, snapshot, now);
+    }
+    
+    // Draw the latest snapshot, on the render thread if there is one
+    // Called on the UI thread, where the game moves
+    public void refresh() {
+        if (surface != null) {
+            surface.requestRender();
+            return;
+        }
         
-        if (game.aGrid.isAnimationActive()) {
-            // Refresh when animation running
-            invalidate(startingX, startingY, endingX, endingY);
-            tick();
-        } else if ((game.won || game.lose) && refreshLastTime) {
-            // Refresh last time when game end
+        dirty.setEmpty();
+        if (getDirty(drawn, drawnTime, game.getSnapshot(), System.nanoTime(), dirty)) {
+            invalidate(dirty);
+        } else {
             invalidate();
-            refreshLastTime = false;
         }
     }
+    
+    // Grows dirty by what changes on the screen from last as it was drawn
+    // at then to snapshot at now: the score, the cells whose tile changed,
+    // and the cells an animation was or is still drawn over
+    // False if the whole view has to be drawn again
+    public boolean getDirty(BoardSnapshot last, long then, BoardSnapshot snapshot, long now, Rect dirty) {
+        if (last == null || last.width != snapshot.width || last.height != snapshot.height
+                || last.won || last.lose || snapshot.won || snapshot.lose) {
+            // The end of the game fades over all of it
+            return false;
+        }
+        
+        if (last.score != snapshot.score || last.highScore != snapshot.highScore) {
+            dirty.union(startingX, sYAll, endingX, eYAll);
+        }
+        
+        for (int xx = 0; xx < snapshot.width; xx++) {
+            for (int yy = 0; yy < snapshot.height; yy++) {
+                if (last != snapshot) {
+                    if (last.getValue(xx, yy) != snapshot.getValue(xx, yy)) {
+                        unionCell(dirty, xx, yy);
+                    }
+                    unionAnimations(dirty, last, then, xx, yy);
+                }
+                unionAnimations(dirty, snapshot, then, xx, yy);
+            }
+        }
+        return true;
+    }
+    
+    // The animations of a cell not done by then, moving tiles along all their way
+    private void unionAnimations(Rect dirty, BoardSnapshot snapshot, long then, int x, int y) {
+        int last = snapshot.lastAnimation(x, y);
+        for (int i = snapshot.firstAnimation(x, y); i < last; i++) {
+            if (snapshot.isDone(i, then)) {
+                continue;
+            }
+            
+            unionCell(dirty, x, y);
+            if (snapshot.getAnimationType(i) == MainGame.MOVE_ANIMATION) {
+                unionCell(dirty, snapshot.getFromX(i), snapshot.getFromY(i));
+            }
+        }
+    }
+    
+    // With the gap around it, which a merging tile grows into
+    private void unionCell(Rect dirty, int x, int y) {
+        int sX = startingX + gridWidth + (cellSize + gridWidth) * x;
+        int sY = startingY + gridWidth + (cellSize + gridWidth) * y;
+        dirty.union(sX - gridWidth, sY - gridWidth, sX + cellSize + gridWidth, sY + cellSize + gridWidth);
+    }
 
     public void drawDrawable(Canvas canvas, Drawable draw, int startingX, int startingY, int endingX, int endingY) {
         draw.setBounds(startingX, startingY, endingX, endingY);
@@ -187,13 +301,13 @@ public class MainView extends View
         canvas.drawText(tileTexts[value - 1], sX + cellSize / 2, sY + cellSize / 2 - textShiftY, paint);
     }
 
-    public void drawScoreText(Canvas canvas) {
+    public void drawScoreText(Canvas canvas, BoardSnapshot snapshot) {
         //Drawing the score text: Ver 2
         paint.setTextSize(bodyTextSize);
         paint.setTextAlign(Paint.Align.CENTER);
 
-        int bodyWidthHighScore = (int) (paint.measureText("" + game.highScore));
-        int bodyWidthScore = (int) (paint.measureText("" + game.score));
+        int bodyWidthHighScore = (int) (paint.measureText("" + snapshot.highScore));
+        int bodyWidthScore = (int) (paint.measureText("" + snapshot.score));
 
         int textWidthHighScore = Math.max(titleWidthHighScore, bodyWidthHighScore) + textPaddingSize * 2;
         int textWidthScore = Math.max(titleWidthScore, bodyWidthScore) + textPaddingSize * 2;
@@ -215,7 +329,7 @@ public class MainView extends View
         canvas.drawText(highScore, sXHighScore + textMiddleHighScore, titleStartYAll, paint);
         paint.setTextSize(bodyTextSize);
         paint.setColor(TEXT_WHITE);
-        canvas.drawText("" + game.highScore, sXHighScore + textMiddleHighScore, bodyStartYAll, paint);
+        canvas.drawText("" + snapshot.highScore, sXHighScore + textMiddleHighScore, bodyStartYAll, paint);
 
 
         //Outputting scores box
@@ -226,11 +340,11 @@ public class MainView extends View
         canvas.drawText(score, sXScore + textMiddleScore, titleStartYAll, paint);
         paint.setTextSize(bodyTextSize);
         paint.setColor(TEXT_WHITE);
-        canvas.drawText("" + game.score, sXScore + textMiddleScore, bodyStartYAll, paint);
+        canvas.drawText("" + snapshot.score, sXScore + textMiddleScore, bodyStartYAll, paint);
     }
 
-    public void drawNewGameButton(Canvas canvas) {
-        if ((game.won || game.lose)) {
+    public void drawNewGameButton(Canvas canvas, boolean lightUp) {
+        if (lightUp) {
             drawDrawable(canvas, lightUpRectangle, sXNewGame, sYIcons, sXNewGame + iconSize, sYIcons + iconSize);
         } else {
             drawDrawable(canvas, backgroundRectangle, sXNewGame, sYIcons, sXNewGame + iconSize, sYIcons + iconSize);
@@ -271,50 +385,63 @@ public class MainView extends View
                 int sY = startingY + gridWidth + (cellSize + gridWidth) * yy;
                 int eY = sY + cellSize;
 
-                drawDrawable(canvas, cellRectangle[0], sX, sY, eX, eY);
+                atlas.draw(canvas, 0, sX, sY, eX, eY);
             }
         }
     }
 
-    public void drawCells(Canvas canvas) {
-        Tile[][] tiles;
-        AnimationGrid aGrid;
-        
+    public void drawCells(Canvas canvas, BoardSnapshot snapshot, long now) {
         // Outputting the individual cells
-        for (int xx = 0; xx < game.numSquaresX; xx++) {
-            for (int yy = 0; yy < game.numSquaresY; yy++) {
+        for (int xx = 0; xx < snapshot.width; xx++) {
+            for (int yy = 0; yy < snapshot.height; yy++) {
                 int sX = startingX + gridWidth + (cellSize + gridWidth) * xx;
                 int eX = sX + cellSize;
                 int sY = startingY + gridWidth + (cellSize + gridWidth) * yy;
                 int eY = sY + cellSize;
 
-                Tile currentTile = game.grid.field[xx][yy];
-                if (currentTile != null) {
+                // Not in the part drawn again, what is on the screen stays
+                if (canvas.quickReject(sX - gridWidth, sY - gridWidth, eX + gridWidth, eY + gridWidth, Canvas.EdgeType.BW)) {
+                    continue;
+                }
+
+                int value = snapshot.getValue(xx, yy);
+                if (value != 0) {
                     //Get and represent the value of the tile
-                    int value = currentTile.getValue();
                     int index = log2(value);
 
-                    //Check for any active animations
-                    ArrayList<AnimationCell> aArray = game.aGrid.getAnimationCell(xx, yy);
+                    //Check for any active animations, the ones done are gone
+                    int first = snapshot.firstAnimation(xx, yy);
+                    int last = snapshot.lastAnimation(xx, yy);
+                    int running = 0;
+                    for (int i = first; i < last; i++) {
+                        if (!snapshot.isDone(i, now)) {
+                            running++;
+                        }
+                    }
+                    
                     boolean animated = false;
-                    for (int i = aArray.size() - 1; i >= 0; i--) {
-                        AnimationCell aCell = aArray.get(i);
+                    for (int i = last - 1; i >= first; i--) {
+                        if (snapshot.isDone(i, now)) {
+                            continue;
+                        }
+                        
+                        int type = snapshot.getAnimationType(i);
                         //If this animation is not active, skip it
-                        if (aCell.getAnimationType() == MainGame.SPAWN_ANIMATION) {
+                        if (type == MainGame.SPAWN_ANIMATION) {
                             animated = true;
                         }
-                        if (!aCell.isActive()) {
+                        if (!snapshot.isActive(i, now)) {
                             continue;
                         }
 
-                        if (aCell.getAnimationType() == MainGame.SPAWN_ANIMATION) { // Spawning animation
-                            double percentDone = aCell.getPercentageDone();
+                        if (type == MainGame.SPAWN_ANIMATION) { // Spawning animation
+                            double percentDone = snapshot.getPercentageDone(i, now);
                             float textScaleSize = (float) (percentDone);
 
                             float cellScaleSize = cellSize / 2 * (1 - textScaleSize);
-                            drawDrawable(canvas, cellRectangle[index], (int) (sX + cellScaleSize), (int) (sY + cellScaleSize), (int) (eX - cellScaleSize), (int) (eY - cellScaleSize));
-                        } else if (aCell.getAnimationType() == MainGame.MERGE_ANIMATION) { // Merging Animation
-                            double percentDone = aCell.getPercentageDone();
+                            atlas.draw(canvas, index, (int) (sX + cellScaleSize), (int) (sY + cellScaleSize), (int) (eX - cellScaleSize), (int) (eY - cellScaleSize));
+                        } else if (type == MainGame.MERGE_ANIMATION) { // Merging Animation
+                            double percentDone = snapshot.getPercentageDone(i, now);
                             
                             float currentVelocity = (float) 0.0;
                             
@@ -328,45 +455,37 @@ public class MainView extends View
                             float textScaleSize = (float) (1 + currentVelocity * percentDone); // s = vt
 
                             float cellScaleSize = cellSize / 2 * (1 - textScaleSize);
-                            drawDrawable(canvas, cellRectangle[index], (int) (sX + cellScaleSize), (int) (sY + cellScaleSize), (int) (eX - cellScaleSize), (int) (eY - cellScaleSize));
-                        } else if (aCell.getAnimationType() == MainGame.MOVE_ANIMATION) {  // Moving animation
-                            double percentDone = aCell.getPercentageDone();
+                            atlas.draw(canvas, index, (int) (sX + cellScaleSize), (int) (sY + cellScaleSize), (int) (eX - cellScaleSize), (int) (eY - cellScaleSize));
+                        } else if (type == MainGame.MOVE_ANIMATION) {  // Moving animation
+                            double percentDone = snapshot.getPercentageDone(i, now);
                             int tempIndex = index;
-                            if (aArray.size() >= 2) {
+                            if (running >= 2) {
                                 tempIndex = tempIndex - 1;
                             }
-                            int previousX = aCell.extras[0];
-                            int previousY = aCell.extras[1];
-                            int currentX = currentTile.getX();
-                            int currentY = currentTile.getY();
-                            int dX = (int) ((currentX - previousX) * (cellSize + gridWidth) * (percentDone - 1) * (percentDone - 1) * -MOVING_ACCELERATION);
-                            int dY = (int) ((currentY - previousY) * (cellSize + gridWidth) * (percentDone - 1) * (percentDone - 1) * -MOVING_ACCELERATION);
+                            int previousX = snapshot.getFromX(i);
+                            int previousY = snapshot.getFromY(i);
+                            int dX = (int) ((xx - previousX) * (cellSize + gridWidth) * (percentDone - 1) * (percentDone - 1) * -MOVING_ACCELERATION);
+                            int dY = (int) ((yy - previousY) * (cellSize + gridWidth) * (percentDone - 1) * (percentDone - 1) * -MOVING_ACCELERATION);
                             
-                            drawDrawable(canvas, cellRectangle[tempIndex], sX + dX, sY + dY, eX + dX, eY + dY);
+                            atlas.draw(canvas, tempIndex, sX + dX, sY + dY, eX + dX, eY + dY);
                         }
                         animated = true;
                     }
 
                     //No active animations? Just draw the cell
                     if (!animated) {
-                        drawDrawable(canvas, cellRectangle[index], sX, sY, eX, eY);
+                        atlas.draw(canvas, index, sX, sY, eX, eY);
                     }
                 }
             }
         }
     }
 
-    public void drawEndGameState(Canvas canvas) {
-        double alphaChange = 1;
+    public void drawEndGameState(Canvas canvas, BoardSnapshot snapshot, long now) {
         //Animation: Dynamically change the alpha
-        for (AnimationCell animation : game.aGrid.globalAnimation) {
-            if (animation.getAnimationType() == MainGame.FADE_GLOBAL_ANIMATION) {
-                alphaChange = animation.getPercentageDone();
-            }
-
-        }
+        double alphaChange = snapshot.getFade(now);
         // Displaying game over
-        if (game.won) {
+        if (snapshot.won) {
             lightUpRectangle.setAlpha((int) (127 * alphaChange));
             drawDrawable(canvas, lightUpRectangle ,startingX, startingY, endingX, endingY);
             lightUpRectangle.setAlpha(255);
@@ -376,7 +495,7 @@ public class MainView extends View
             paint.setTextAlign(Paint.Align.CENTER);
             canvas.drawText(youWin, boardMiddleX, boardMiddleY - centerText(), paint);
             paint.setAlpha(255);
-        } else if (game.lose) {
+        } else if (snapshot.lose) {
             fadeRectangle.setAlpha((int) (127 * alphaChange));
             drawDrawable(canvas, fadeRectangle, startingX, startingY, endingX, endingY);
             fadeRectangle.setAlpha(255);
@@ -394,28 +513,13 @@ public class MainView extends View
         Canvas canvas = new Canvas(background);
         canvas.drawColor(backgroundColor);
         drawHeader(canvas);
-        drawNewGameButton(canvas);
+        drawNewGameButton(canvas, game.won || game.lose);
         drawBackground(canvas);
         drawBackgroundGrid(canvas);
         drawInstructions(canvas);
     }
 
 
-    public void tick() {
-        currentTime = System.nanoTime();
-        
-        try {
-            game.aGrid.tickAll(currentTime - lastFPSTime);
-        } catch (ConcurrentModificationException e) {
-            // Might be modified in background
-        }
-        lastFPSTime = currentTime;
-    }
-
-    public void resyncTime() {
-        lastFPSTime = System.nanoTime();
-    }
-
     public static int log2(int n){
         if(n <= 0) throw new IllegalArgumentException();
         return (int) (Math.log(n) / Math.log(2));
@@ -466,39 +570,30 @@ public class MainView extends View
 
         sYIcons = (startingY + eYAll) / 2 - iconSize / 2;
         sXNewGame = (endingX - iconSize);
-        resyncTime();
         getScreenSize = false;
-        initRectangleDrawables();
     }
     
-    private void initRectangleDrawables() {
+    // Only when the cells change size, every frame after it draws from the atlas
+    public void createTileAtlas() {
+        if (atlas != null && atlas.cellSize == cellSize) {
+            return;
+        }
+        
         paint.setTextSize(textSize);
         paint.setTextAlign(Paint.Align.CENTER);
         
-        // The last drawable
-        Drawable lastDrawable = cellRectangle[11];
-        
-        // Array
-        Drawable[] newArray = new Drawable[tileTexts.length + 1];
-        newArray[0] = cellRectangle[0];
-        
-        // Draw the rects into cache
-        for (int i = 1; i < tileTexts.length + 1; i++) {
-            Drawable rect;
-            if (i <= 11) {
-                rect = cellRectangle[i];
-            } else {
-                rect = lastDrawable;
+        atlas = new TileAtlas(tileTexts.length + 1, cellSize);
+        Canvas canvas = new Canvas(atlas.bitmap);
+        for (int i = 0; i < tileTexts.length + 1; i++) {
+            // Values past 2048 share its colour
+            Drawable rect = cellRectangle[Math.min(i, cellRectangle.length - 1)];
+            int sX = atlas.getLeft(i);
+            int sY = atlas.getTop(i);
+            drawDrawable(canvas, rect, sX, sY, sX + cellSize, sY + cellSize);
+            if (i > 0) {
+                drawCellText(canvas, i, sX, sY);
             }
-            Bitmap bitmap = Bitmap.createBitmap(cellSize, cellSize, Bitmap.Config.ARGB_8888);
-            Canvas canvas = new Canvas(bitmap);
-            drawDrawable(canvas, rect, 0, 0, cellSize, cellSize);
-            drawCellText(canvas, i, 0, 0);
-            rect = new BitmapDrawable(bitmap);
-            newArray[i] = rect;
         }
-        
-        cellRectangle = newArray;
     }
 
     public int centerText() {
@@ -512,7 +607,7 @@ public class MainView extends View
         int variety = SettingsProvider.getInt(SettingsProvider.KEY_VARIETY, 0);
         String[] varietyEntries = resources.getStringArray(R.array.variety_entries);
         tileTexts = varietyEntries[variety].split("\\|");
-        maxValue = (int) Math.pow(2, tileTexts.length);
+        goalExponent = tileTexts.length;
         
         // Inverse mode
         inverseMode = SettingsProvider.getBoolean(SettingsProvider.KEY_INVERSE_MODE, false);
@@ -564,18 +659,63 @@ public class MainView extends View
         } catch (Exception e) {
             System.out.println("Error getting assets?");
         }
+        weights = loadWeights(resources);
         listener = new InputListener(this);
         setOnTouchListener(listener);
         setOnKeyListener(listener);
         game.newGame();
     }
     
+    // The profile written by the weight optimizer in tools
+    private Weights loadWeights(Resources resources) {
+        InputStream in = null;
+        try {
+            in = resources.getAssets().open(WEIGHTS_ASSET);
+            return Weights.load(in);
+        } catch (IOException e) {
+            Log.w(TAG, "Error loading AI weights, using the defaults", e);
+            return Weights.DEFAULT;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Already read
+                }
+            }
+        }
+    }
+    
+    // Trained by the n-tuple trainer in tools
+    // Mapped rather than read, so it costs no heap and is shared by every AI
+    private static NTupleNetwork loadNetwork(Context context) {
+        if (networkLoaded) {
+            return network;
+        }
+        networkLoaded = true;
+        
+        try {
+            network = NTupleNetwork.map(AssetFiles.extract(context, NETWORK_ASSET));
+        } catch (IOException e) {
+            Log.w(TAG, "No n-tuple network, using the heuristics", e);
+        }
+        return network;
+    }
+    
     public void startAi() {
         if (aiThread != null) {
             stopAi();
         }
         
         ai = new AI(game);
+        ai.setWeights(weights);
+        int engine = SettingsProvider.getInt(SettingsProvider.KEY_AI_ENGINE, AI.ENGINE_EXPECTIMAX);
+        ai.setEngine(engine);
+        if (engine == AI.ENGINE_NTUPLE) {
+            // Without a network it is the usual expectimax
+            ai.setEvaluator(loadNetwork(getContext()));
+        }
+        ai.setThreads(SettingsProvider.getInt(SettingsProvider.KEY_AI_THREADS, 0));
         aiThread = new Thread(aiRunnable);
         aiThread.start();
         aiRunning = true;
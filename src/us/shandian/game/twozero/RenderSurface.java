@@ -0,0 +1,210 @@
+package us.shandian.game.twozero;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.Choreographer;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+/*
+ *
+ * Draws the MainView on a thread of its own instead of the UI thread
+ * Frames are paced by Choreographer (the display's vsync) from
+ * Jelly Bean on, by a timer before it
+ * The game is only seen through the snapshots it publishes, so moves
+ * of the AI or the player never wait for a frame, nor frames for them
+ * Nothing is drawn while nothing moves, a new snapshot wakes it up
+ * Only what changed since the last frame is drawn again, the rest of
+ * the surface keeps what it had
+ *
+ */
+
+public class RenderSurface extends SurfaceView implements SurfaceHolder.Callback
+{
+    // Between frames when there is no Choreographer
+    static final long FRAME_INTERVAL = 16;
+
+    final MainView mView;
+
+    // Held while the layout changes or a frame is drawn
+    final Object mLock = new Object();
+
+    HandlerThread mThread;
+    volatile Handler mHandler;
+
+    // Only touched on the render thread
+    boolean mScheduled = false;
+    // Held until another frame is drawn, see MainGame.acquireSnapshot
+    BoardSnapshot mDrawn;
+    long mDrawnTime;
+    // mDrawn is on the screen as it ends, nothing left to draw
+    boolean mDrawnStill = false;
+    final Rect mDirty = new Rect();
+    VsyncCallback mVsync;
+
+    final Runnable mScheduleFrame = new Runnable() {
+        @Override
+        public void run() {
+            scheduleFrame();
+        }
+    };
+
+    final Runnable mTimerFrame = new Runnable() {
+        @Override
+        public void run() {
+            drawFrame(System.nanoTime());
+        }
+    };
+
+    public RenderSurface(Context context, MainView view) {
+        super(context);
+        mView = view;
+        view.surface = this;
+        getHolder().addCallback(this);
+        setOnTouchListener(view.listener);
+        setOnKeyListener(view.listener);
+        setFocusable(true);
+        setFocusableInTouchMode(true);
+    }
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+        mThread = new HandlerThread("Renderer");
+        mThread.start();
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        synchronized (mLock) {
+            mView.getLayout(width, height);
+            mView.createTileAtlas();
+            mView.createBackgroundBitmap(width, height);
+        }
+
+        if (mHandler == null) {
+            mHandler = new Handler(mThread.getLooper());
+        }
+        // Nothing drawn yet at this size
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                setDrawn(null);
+                scheduleFrame();
+            }
+        });
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        // The surface must not be drawn on once this returns
+        mHandler = null;
+        mThread.quit();
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mThread = null;
+        mScheduled = false;
+        mVsync = null;
+    }
+
+    // From any thread: a new snapshot is there to draw
+    public void requestRender() {
+        Handler handler = mHandler;
+        if (handler != null) {
+            handler.post(mScheduleFrame);
+        }
+    }
+
+    private void scheduleFrame() {
+        if (mScheduled || mHandler == null) {
+            return;
+        }
+        mScheduled = true;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            if (mVsync == null) {
+                mVsync = new VsyncCallback();
+            }
+            mVsync.post();
+        } else {
+            mHandler.postDelayed(mTimerFrame, FRAME_INTERVAL);
+        }
+    }
+
+    // frameTime is when the frame will be shown, so the animations move
+    // by the same step every frame whatever drawing it cost
+    private void drawFrame(long frameTime) {
+        mScheduled = false;
+
+        BoardSnapshot snapshot = mView.game.acquireSnapshot();
+        boolean animating = snapshot.isAnimating(frameTime);
+        if (snapshot == mDrawn && mDrawnStill) {
+            mView.game.releaseSnapshot(snapshot);
+            return;
+        }
+
+        SurfaceHolder holder = getHolder();
+        Canvas canvas;
+        synchronized (mLock) {
+            mDirty.setEmpty();
+            boolean partial = mView.getDirty(mDrawn, mDrawnTime, snapshot, frameTime, mDirty);
+            if (partial && mDirty.isEmpty()) {
+                // Nothing on the screen changes
+                canvas = null;
+            } else {
+                // Clipped to mDirty, which the surface may grow
+                canvas = partial ? holder.lockCanvas(mDirty) : holder.lockCanvas();
+                if (canvas == null) {
+                    mView.game.releaseSnapshot(snapshot);
+                    return;
+                }
+            }
+        }
+        if (canvas != null) {
+            try {
+                synchronized (mLock) {
+                    mView.drawFrame(canvas, snapshot, frameTime);
+                }
+            } finally {
+                holder.unlockCanvasAndPost(canvas);
+            }
+        }
+        setDrawn(snapshot);
+        mDrawnTime = frameTime;
+        mDrawnStill = !animating;
+
+        // Once more after the animations end, to draw where they stop
+        if (animating) {
+            scheduleFrame();
+        }
+    }
+
+    // Keeps the snapshot acquired for a frame while it is on the screen,
+    // and lets go of the one before
+    private void setDrawn(BoardSnapshot snapshot) {
+        if (mDrawn != null) {
+            mView.game.releaseSnapshot(mDrawn);
+        }
+        mDrawn = snapshot;
+    }
+
+    // Only made from Jelly Bean on, older systems never load it
+    private class VsyncCallback implements Choreographer.FrameCallback {
+        final Choreographer mChoreographer = Choreographer.getInstance();
+
+        void post() {
+            mChoreographer.postFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            drawFrame(frameTimeNanos);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package us.shandian.game.twozero;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/*
+ *
+ * Every game played, as its seed and moves, see Replay
+ * The records are made as the game moves and appended to the log
+ * on the saver's thread a while after, or when the app is left
+ * Once the log is big it is moved aside and a new one started,
+ * so there are two at most; that waits for a new game, so a game
+ * is never split between the two
+ *
+ */
+
+public class ReplayLog
+{
+    static final String TAG = "ReplayLog";
+    static final String FILE = "replays.bin";
+    static final String OLD_FILE = "replays.old.bin";
+    static final long MAX_SIZE = 1 << 20;
+
+    // Moves that come close together are written at once
+    static final long FLUSH_DELAY = 1000;
+
+    static ReplayLog sInstance;
+
+    final File mFile;
+    final File mOldFile;
+    final ReplayWriter mWriter = new ReplayWriter();
+    boolean mFlushPosted = false;
+
+    final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            write();
+        }
+    };
+
+    public static synchronized ReplayLog get(Context context) {
+        if (sInstance == null) {
+            sInstance = new ReplayLog(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ReplayLog(Context context) {
+        mFile = new File(context.getFilesDir(), FILE);
+        mOldFile = new File(context.getFilesDir(), OLD_FILE);
+    }
+
+    public void startGame(Game game, int variety) {
+        mWriter.startGame(game, variety);
+        post();
+    }
+
+    public void move(int direction) {
+        mWriter.move(direction);
+        post();
+    }
+
+    public void undo() {
+        mWriter.undo();
+        post();
+    }
+
+    public void redo() {
+        mWriter.redo();
+        post();
+    }
+
+    public void place(int x, int y) {
+        mWriter.place(x, y);
+        post();
+    }
+
+    public void end(long score) {
+        mWriter.end(score);
+        post();
+    }
+
+    // Now, before the app may be killed
+    public void flush() {
+        GameSaver.getHandler().post(mFlush);
+    }
+
+    private synchronized void post() {
+        if (!mFlushPosted) {
+            mFlushPosted = true;
+            GameSaver.getHandler().postDelayed(mFlush, FLUSH_DELAY);
+        }
+    }
+
+    // On the saver's thread
+    private void write() {
+        synchronized (this) {
+            mFlushPosted = false;
+        }
+        if (mWriter.isEmpty()) {
+            return;
+        }
+
+        try {
+            if (mFile.length() > MAX_SIZE && mWriter.hasGame()) {
+                // The end of the game before stays with its start
+                append(true);
+                mOldFile.delete();
+                mFile.renameTo(mOldFile);
+            }
+            append(false);
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing the replay log", e);
+        }
+    }
+
+    private void append(boolean beforeGame) throws IOException {
+        boolean started = mFile.length() > 0;
+        FileOutputStream out = new FileOutputStream(mFile, true);
+        try {
+            if (!started) {
+                ReplayWriter.writeHeader(out);
+            }
+            if (beforeGame) {
+                mWriter.drainBeforeGame(out);
+            } else {
+                mWriter.drain(out);
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package us.shandian.game.twozero;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+/*
+ *
+ * Every tile, background and text, drawn once into one bitmap
+ * A frame is then only scaled copies out of it, with no text
+ * measured or drawn, and a single texture for the whole board
+ * Made again only when the size of the cells changes
+ *
+ */
+
+public class TileAtlas
+{
+    // Around every tile, so filtering a scaled tile never takes in its neighbours
+    static final int PADDING = 1;
+
+    public final int cellSize;
+    public final Bitmap bitmap;
+
+    final int mColumns;
+    final int mStride;
+
+    final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    final Rect mSrc = new Rect();
+    final Rect mDst = new Rect();
+
+    // tiles is how many there are, the empty cell included
+    public TileAtlas(int tiles, int cellSize) {
+        this.cellSize = cellSize;
+        mStride = cellSize + 2 * PADDING;
+        mColumns = (int) Math.ceil(Math.sqrt(tiles));
+        int rows = (tiles + mColumns - 1) / mColumns;
+        bitmap = Bitmap.createBitmap(mColumns * mStride, rows * mStride, Bitmap.Config.ARGB_8888);
+    }
+
+    // Where tile index is drawn in the bitmap
+    public int getLeft(int index) {
+        return index % mColumns * mStride + PADDING;
+    }
+
+    public int getTop(int index) {
+        return index / mColumns * mStride + PADDING;
+    }
+
+    // Tile index scaled into the rect, from the UI or the render thread
+    public void draw(Canvas canvas, int index, int startingX, int startingY, int endingX, int endingY) {
+        int left = getLeft(index);
+        int top = getTop(index);
+        mSrc.set(left, top, left + cellSize, top + cellSize);
+        mDst.set(startingX, startingY, endingX, endingY);
+        canvas.drawBitmap(bitmap, mSrc, mDst, mPaint);
+    }
+}
@@ -12,14 +12,16 @@ import android.os.Bundle;
 
 import us.shandian.game.twozero.R;
 import us.shandian.game.twozero.InputListener;
-import us.shandian.game.twozero.MainActivity;
 import us.shandian.game.twozero.MainView;
 
 public class SettingsActivity extends PreferenceActivity implements OnPreferenceChangeListener
 {
     private ListPreference mSensitivity;
     private ListPreference mVariety;
+    private ListPreference mAiThreads;
+    private ListPreference mAiEngine;
     private CheckBoxPreference mInverse;
+    private CheckBoxPreference mRenderThread;
     
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -30,11 +32,17 @@ public class SettingsActivity extends PreferenceActivity implements OnPreference
         
         mSensitivity = (ListPreference) findPreference(SettingsProvider.KEY_SENSITIVITY);
         mVariety = (ListPreference) findPreference(SettingsProvider.KEY_VARIETY);
+        mAiThreads = (ListPreference) findPreference(SettingsProvider.KEY_AI_THREADS);
+        mAiEngine = (ListPreference) findPreference(SettingsProvider.KEY_AI_ENGINE);
         mInverse = (CheckBoxPreference) findPreference(SettingsProvider.KEY_INVERSE_MODE);
+        mRenderThread = (CheckBoxPreference) findPreference(SettingsProvider.KEY_RENDER_THREAD);
         
         mSensitivity.setOnPreferenceChangeListener(this);
         mVariety.setOnPreferenceChangeListener(this);
+        mAiThreads.setOnPreferenceChangeListener(this);
+        mAiEngine.setOnPreferenceChangeListener(this);
         mInverse.setOnPreferenceChangeListener(this);
+        mRenderThread.setOnPreferenceChangeListener(this);
         
         // Initialize values
         int sensitivity = SettingsProvider.getInt(SettingsProvider.KEY_SENSITIVITY, 1);
@@ -47,7 +55,17 @@ public class SettingsActivity extends PreferenceActivity implements OnPreference
         String[] varietySummaries = getResources().getStringArray(R.array.settings_variety_entries);
         mVariety.setSummary(varietySummaries[variety]);
         
+        int threads = SettingsProvider.getInt(SettingsProvider.KEY_AI_THREADS, 0);
+        mAiThreads.setValue(String.valueOf(threads));
+        mAiThreads.setSummary(mAiThreads.getEntry());
+        
+        int engine = SettingsProvider.getInt(SettingsProvider.KEY_AI_ENGINE, 0);
+        mAiEngine.setValueIndex(engine);
+        String[] engineSummaries = getResources().getStringArray(R.array.settings_ai_engine_entries);
+        mAiEngine.setSummary(engineSummaries[engine]);
+        
         mInverse.setChecked(SettingsProvider.getBoolean(SettingsProvider.KEY_INVERSE_MODE, false));
+        mRenderThread.setChecked(SettingsProvider.getBoolean(SettingsProvider.KEY_RENDER_THREAD, false));
     }
 
     @Override
@@ -65,16 +83,31 @@ public class SettingsActivity extends PreferenceActivity implements OnPreference
             mVariety.setSummary(varietySummaries[variety]);
             SettingsProvider.putInt(SettingsProvider.KEY_VARIETY, variety);
             
-            // Variety switch, must clear saved state and call MainActivity not to save
+            // Variety switch, the saved game is of the old one
             clearState();
             
             Toast.makeText(this, R.string.msg_restart, 1000).show();
             return true;
+        } else if (preference == mAiThreads) {
+            int threads = Integer.valueOf((String) newValue);
+            mAiThreads.setSummary(mAiThreads.getEntries()[mAiThreads.findIndexOfValue((String) newValue)]);
+            SettingsProvider.putInt(SettingsProvider.KEY_AI_THREADS, threads);
+            return true;
+        } else if (preference == mAiEngine) {
+            int engine = Integer.valueOf((String) newValue);
+            String[] engineSummaries = getResources().getStringArray(R.array.settings_ai_engine_entries);
+            mAiEngine.setSummary(engineSummaries[engine]);
+            SettingsProvider.putInt(SettingsProvider.KEY_AI_ENGINE, engine);
+            return true;
         } else if (preference == mInverse) {
             boolean inverse = (boolean) newValue;
             SettingsProvider.putBoolean(SettingsProvider.KEY_INVERSE_MODE, inverse);
             MainView.inverseMode = inverse;
             return true;
+        } else if (preference == mRenderThread) {
+            SettingsProvider.putBoolean(SettingsProvider.KEY_RENDER_THREAD, (boolean) newValue);
+            Toast.makeText(this, R.string.msg_restart, 1000).show();
+            return true;
         } else  {
             return false;
         }
@@ -95,6 +128,6 @@ public class SettingsActivity extends PreferenceActivity implements OnPreference
                  .edit()
                  .remove("size")
                  .commit();
-        MainActivity.save = false;
+        // The binary save knows its variety, the next start refuses it
     }
 }
@@ -10,6 +10,9 @@ public class SettingsProvider
     public static String KEY_SENSITIVITY = "settings_sensitivity";
     public static String KEY_VARIETY = "settings_variety";
     public static String KEY_INVERSE_MODE = "settings_inverse_mode";
+    public static String KEY_AI_THREADS = "settings_ai_threads";
+    public static String KEY_AI_ENGINE = "settings_ai_engine";
+    public static String KEY_RENDER_THREAD = "settings_render_thread";
 
     public static SharedPreferences prefs;
     
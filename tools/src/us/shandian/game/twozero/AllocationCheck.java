@@ -0,0 +1,124 @@
+package us.shandian.game.twozero;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/*
+ *
+ * Checks that AI.getBestMove allocates nothing once warmed up
+ * Plays games on every board size with one thread and a fixed depth,
+ * and counts the bytes the thread allocates inside getBestMove only
+ * (Game.move itself still makes tiles)
+ * Exits with 1 if anything was allocated
+ *
+ */
+
+public class AllocationCheck
+{
+    static final String USAGE = "Usage: AllocationCheck [-depth n] [-warmup n] [-moves n] [-seed n]";
+
+    static final int[] SIZES = {4, 5, 6};
+
+    int depth = 2;
+    int warmup = 30;
+    int moves = 100;
+    long seed = 0;
+
+    com.sun.management.ThreadMXBean mThreads;
+
+    public static void main(String[] args) {
+        AllocationCheck check = new AllocationCheck();
+        try {
+            check.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+            System.err.println("This VM cannot count allocated bytes per thread");
+            System.exit(2);
+        }
+        check.mThreads = (com.sun.management.ThreadMXBean) threads;
+        check.mThreads.setThreadAllocatedMemoryEnabled(true);
+
+        boolean clean = true;
+        for (int size : SIZES) {
+            clean &= check.run(size);
+        }
+        System.exit(clean ? 0 : 1);
+    }
+
+    void parse(String[] args) {
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+
+            String value = args[i + 1];
+            try {
+                if (args[i].equals("-depth")) {
+                    depth = Integer.parseInt(value);
+                } else if (args[i].equals("-warmup")) {
+                    warmup = Integer.parseInt(value);
+                } else if (args[i].equals("-moves")) {
+                    moves = Integer.parseInt(value);
+                } else if (args[i].equals("-seed")) {
+                    seed = Long.parseLong(value);
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a number: " + value);
+            }
+        }
+    }
+
+    // False if any measured move allocated
+    boolean run(int size) {
+        long thread = Thread.currentThread().getId();
+        Game game = null;
+        AI ai = null;
+        long bytes = 0;
+        int measured = 0;
+        int played = 0;
+        long games = 0;
+
+        while (measured < moves) {
+            if (game == null || game.won || game.lose) {
+                game = new Game(size, size, size == 4 ? 11 : 16);
+                game.newGame(seed + games++);
+                if (ai == null) {
+                    ai = new AI(game);
+                    ai.setMaxDepth(depth);
+                    ai.setTimeLimit(TimeUnit.DAYS.toMillis(1));
+                } else {
+                    ai.setGame(game);
+                }
+            }
+
+            long before = mThreads.getThreadAllocatedBytes(thread);
+            int move = ai.getBestMove();
+            long after = mThreads.getThreadAllocatedBytes(thread);
+
+            if (played++ >= warmup) {
+                bytes += after - before;
+                measured++;
+            }
+
+            if (!game.move(move)) {
+                boolean moved = false;
+                for (int direction = 0; direction <= 3 && !moved; direction++) {
+                    moved = game.move(direction);
+                }
+            }
+        }
+
+        System.out.println(String.format("%dx%d: %d bytes in %d moves at depth %d",
+                size, size, bytes, measured, depth));
+        return bytes == 0;
+    }
+}
@@ -0,0 +1,396 @@
+package us.shandian.game.twozero;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.Random;
+
+/*
+ *
+ * Tunes the weights of AI.evaluate by self-play
+ * Separable CMA-ES (Ros & Hansen 2008): a full CMA-ES that only
+ * adapts the diagonal of the covariance, plenty for six weights
+ * The fitness of a candidate is its mean score over the same
+ * seeded games as the rest of its generation
+ *
+ * The state is checkpointed after every generation, running again
+ * with the same checkpoint file carries on where it stopped
+ *
+ */
+
+public class Optimizer
+{
+    static final String USAGE =
+            "Usage: Optimizer [-generations n] [-games n] [-threads n] [-size n] [-goal tile]\n" +
+            "                 [-time ms] [-depth n] [-seed n] [-sigma s] [-start file]\n" +
+            "                 [-checkpoint file] [-out file]";
+
+    int generations = 50;
+    int games = 200;
+    int threads = Runtime.getRuntime().availableProcessors();
+    int size = 4;
+    int goal = 2048;
+    long timeLimit = -1;
+    int maxDepth = 2;
+    long seed = 0;
+    double initialSigma = 0.3;
+    Weights start = Weights.DEFAULT;
+    String checkpoint = "optimizer.checkpoint";
+    String out = "weights.properties";
+
+    // Search space: weight i is x[i] * mScales[i]
+    // so every coordinate starts around 1 whatever its weight
+    int n;
+    double[] mScales;
+
+    // Strategy parameters, fixed by n
+    int lambda;
+    int mu;
+    double[] mRecombination;
+    double mMuEff;
+    double cSigma, dSigma, cc, c1, cMu, chiN;
+
+    // State, all of it in the checkpoint
+    int mGeneration;
+    double mSigma;
+    double[] mMean;
+    double[] mDiagonal;
+    double[] mPathSigma;
+    double[] mPathC;
+    double mBestFitness = Double.NEGATIVE_INFINITY;
+    double[] mBest;
+
+    public static void main(String[] args) throws Exception {
+        Optimizer optimizer = new Optimizer();
+        try {
+            optimizer.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+
+        optimizer.init();
+        optimizer.run();
+    }
+
+    void parse(String[] args) {
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+
+            String value = args[i + 1];
+            try {
+                if (args[i].equals("-generations")) {
+                    generations = Integer.parseInt(value);
+                } else if (args[i].equals("-games")) {
+                    games = Integer.parseInt(value);
+                } else if (args[i].equals("-threads")) {
+                    threads = Integer.parseInt(value);
+                } else if (args[i].equals("-size")) {
+                    size = Integer.parseInt(value);
+                } else if (args[i].equals("-goal")) {
+                    goal = Integer.parseInt(value);
+                } else if (args[i].equals("-time")) {
+                    timeLimit = Long.parseLong(value);
+                } else if (args[i].equals("-depth")) {
+                    maxDepth = Integer.parseInt(value);
+                } else if (args[i].equals("-seed")) {
+                    seed = Long.parseLong(value);
+                } else if (args[i].equals("-sigma")) {
+                    initialSigma = Double.parseDouble(value);
+                } else if (args[i].equals("-start")) {
+                    start = Simulator.loadWeights(value);
+                } else if (args[i].equals("-checkpoint")) {
+                    checkpoint = value;
+                } else if (args[i].equals("-out")) {
+                    out = value;
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a number: " + value);
+            }
+        }
+    }
+
+    void init() throws IOException {
+        float[] weights = start.toArray();
+        n = weights.length;
+
+        mScales = new double[n];
+        for (int i = 0; i < n; i++) {
+            // Weights switched off start from a small one
+            mScales[i] = weights[i] == 0 ? 0.1 : Math.abs(weights[i]);
+        }
+
+        lambda = 4 + (int) (3 * Math.log(n));
+        mu = lambda / 2;
+        mRecombination = new double[mu];
+        double sum = 0;
+        for (int i = 0; i < mu; i++) {
+            mRecombination[i] = Math.log(mu + 0.5) - Math.log(i + 1);
+            sum += mRecombination[i];
+        }
+        double squares = 0;
+        for (int i = 0; i < mu; i++) {
+            mRecombination[i] /= sum;
+            squares += mRecombination[i] * mRecombination[i];
+        }
+        mMuEff = 1 / squares;
+
+        cSigma = (mMuEff + 2) / (n + mMuEff + 5);
+        dSigma = 1 + 2 * Math.max(0, Math.sqrt((mMuEff - 1) / (n + 1)) - 1) + cSigma;
+        cc = 4.0 / (n + 4);
+        // The diagonal learns (n + 2) / 3 times faster than a full matrix
+        c1 = 2 / ((n + 1.3) * (n + 1.3) + mMuEff) * (n + 2) / 3;
+        cMu = Math.min(1 - c1, 2 * (mMuEff - 2 + 1 / mMuEff) / ((n + 2) * (n + 2) + mMuEff) * (n + 2) / 3);
+        chiN = Math.sqrt(n) * (1 - 1.0 / (4 * n) + 1.0 / (21 * n * n));
+
+        if (new File(checkpoint).exists()) {
+            load();
+            System.out.println("Resuming at generation " + mGeneration + " from " + checkpoint);
+        } else {
+            mGeneration = 0;
+            mSigma = initialSigma;
+            mMean = new double[n];
+            mDiagonal = new double[n];
+            mPathSigma = new double[n];
+            mPathC = new double[n];
+            for (int i = 0; i < n; i++) {
+                mMean[i] = weights[i] / mScales[i];
+                mDiagonal[i] = 1;
+            }
+        }
+    }
+
+    void run() throws IOException, InterruptedException {
+        while (mGeneration < generations) {
+            // Derived from the generation so a resumed run samples the same
+            Random random = new Random(seed * 1000003 + mGeneration);
+
+            double[][] steps = new double[lambda][n];
+            double[][] candidates = new double[lambda][n];
+            double[] fitness = new double[lambda];
+            for (int k = 0; k < lambda; k++) {
+                for (int i = 0; i < n; i++) {
+                    steps[k][i] = Math.sqrt(mDiagonal[i]) * random.nextGaussian();
+                    candidates[k][i] = mMean[i] + mSigma * steps[k][i];
+                }
+
+                // The same games for the whole generation,
+                // new ones for the next so no weights overfit a few seeds
+                fitness[k] = play(candidates[k], seed + (long) mGeneration * games);
+                if (fitness[k] > mBestFitness) {
+                    mBestFitness = fitness[k];
+                    mBest = candidates[k].clone();
+                }
+            }
+
+            update(steps, fitness);
+            mGeneration++;
+
+            System.out.println(String.format("generation %d: best %.0f, median %.0f, sigma %.4f, mean %s",
+                    mGeneration, max(fitness), median(fitness), mSigma, toWeights(mMean)));
+
+            save();
+            saveWeights(toWeights(mMean), out, "Mean after generation " + mGeneration);
+        }
+
+        System.out.println("Best seen: " + mBestFitness + " with " + toWeights(mBest));
+        System.out.println("Written the mean to " + out);
+    }
+
+    double play(double[] x, long gamesSeed) throws IOException, InterruptedException {
+        Simulator simulator = new Simulator();
+        simulator.games = games;
+        simulator.threads = threads;
+        simulator.size = size;
+        simulator.goal = goal;
+        simulator.seed = gamesSeed;
+        simulator.maxDepth = maxDepth;
+        simulator.timeLimit = timeLimit;
+        simulator.applyDefaults();
+        simulator.weights = toWeights(x);
+        simulator.quiet = true;
+        simulator.run();
+        return simulator.getMeanScore();
+    }
+
+    void update(double[][] steps, double[] fitness) {
+        Integer[] order = new Integer[lambda];
+        for (int k = 0; k < lambda; k++) {
+            order[k] = k;
+        }
+        final double[] f = fitness;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                // Highest score first
+                return Double.compare(f[b], f[a]);
+            }
+        });
+
+        double[] step = new double[n];
+        for (int j = 0; j < mu; j++) {
+            for (int i = 0; i < n; i++) {
+                step[i] += mRecombination[j] * steps[order[j]][i];
+            }
+        }
+
+        double norm = 0;
+        for (int i = 0; i < n; i++) {
+            mMean[i] += mSigma * step[i];
+            mPathSigma[i] = (1 - cSigma) * mPathSigma[i]
+                    + Math.sqrt(cSigma * (2 - cSigma) * mMuEff) * step[i] / Math.sqrt(mDiagonal[i]);
+            norm += mPathSigma[i] * mPathSigma[i];
+        }
+        norm = Math.sqrt(norm);
+
+        boolean stalled = norm / Math.sqrt(1 - Math.pow(1 - cSigma, 2 * (mGeneration + 1)))
+                >= (1.4 + 2.0 / (n + 1)) * chiN;
+        double h = stalled ? 0 : 1;
+
+        for (int i = 0; i < n; i++) {
+            mPathC[i] = (1 - cc) * mPathC[i] + h * Math.sqrt(cc * (2 - cc) * mMuEff) * step[i];
+
+            double rankMu = 0;
+            for (int j = 0; j < mu; j++) {
+                double y = steps[order[j]][i];
+                rankMu += mRecombination[j] * y * y;
+            }
+            mDiagonal[i] = (1 - c1 - cMu) * mDiagonal[i]
+                    + c1 * (mPathC[i] * mPathC[i] + (1 - h) * cc * (2 - cc) * mDiagonal[i])
+                    + cMu * rankMu;
+        }
+
+        mSigma *= Math.exp(cSigma / dSigma * (norm / chiN - 1));
+    }
+
+    Weights toWeights(double[] x) {
+        float[] values = new float[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = (float) (x[i] * mScales[i]);
+        }
+        return new Weights(values);
+    }
+
+    static void saveWeights(Weights weights, String file, String comment) throws IOException {
+        File target = new File(file);
+        File temp = new File(file + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            weights.save(stream, comment);
+        } finally {
+            stream.close();
+        }
+        rename(temp, target);
+    }
+
+    void save() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("generation", String.valueOf(mGeneration));
+        properties.setProperty("sigma", String.valueOf(mSigma));
+        properties.setProperty("mean", join(mMean));
+        properties.setProperty("diagonal", join(mDiagonal));
+        properties.setProperty("pathSigma", join(mPathSigma));
+        properties.setProperty("pathC", join(mPathC));
+        properties.setProperty("scales", join(mScales));
+        if (mBest != null) {
+            properties.setProperty("bestFitness", String.valueOf(mBestFitness));
+            properties.setProperty("best", join(mBest));
+        }
+
+        // Never leave half a checkpoint behind
+        File target = new File(checkpoint);
+        File temp = new File(checkpoint + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            properties.store(stream, "Optimizer checkpoint");
+        } finally {
+            stream.close();
+        }
+        rename(temp, target);
+    }
+
+    void load() throws IOException {
+        Properties properties = new Properties();
+        FileInputStream stream = new FileInputStream(checkpoint);
+        try {
+            properties.load(stream);
+        } finally {
+            stream.close();
+        }
+
+        try {
+            mGeneration = Integer.parseInt(properties.getProperty("generation"));
+            mSigma = Double.parseDouble(properties.getProperty("sigma"));
+            mMean = split(properties.getProperty("mean"));
+            mDiagonal = split(properties.getProperty("diagonal"));
+            mPathSigma = split(properties.getProperty("pathSigma"));
+            mPathC = split(properties.getProperty("pathC"));
+            mScales = split(properties.getProperty("scales"));
+            if (properties.getProperty("best") != null) {
+                mBestFitness = Double.parseDouble(properties.getProperty("bestFitness"));
+                mBest = split(properties.getProperty("best"));
+            }
+        } catch (NullPointerException e) {
+            throw new IOException("Incomplete checkpoint " + checkpoint);
+        } catch (NumberFormatException e) {
+            throw new IOException("Broken checkpoint " + checkpoint);
+        }
+
+        if (mMean.length != n) {
+            throw new IOException("Checkpoint " + checkpoint + " is for " + mMean.length + " weights");
+        }
+    }
+
+    private static void rename(File from, File to) throws IOException {
+        if (!from.renameTo(to)) {
+            // Some systems refuse to replace a file
+            to.delete();
+            if (!from.renameTo(to)) {
+                throw new IOException("Cannot write " + to);
+            }
+        }
+    }
+
+    private static String join(double[] values) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(values[i]);
+        }
+        return builder.toString();
+    }
+
+    private static double[] split(String text) {
+        String[] parts = text.split(",");
+        double[] values = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Double.parseDouble(parts[i].trim());
+        }
+        return values;
+    }
+
+    private static double max(double[] values) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double value : values) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
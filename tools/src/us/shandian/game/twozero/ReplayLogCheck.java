@@ -0,0 +1,155 @@
+package us.shandian.game.twozero;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+ *
+ * Checks that rotating a replay log never splits a game, see ReplayLog
+ * Plays random games into a ReplayWriter, drains it every few moves
+ * the way the app does and starts a new log, in memory, at the
+ * first game started once the current one is over -size bytes
+ * Every log must begin with a GAME record, and reading them all back
+ * must give every game, each playing out to its recorded score
+ * Exits with 1 if not
+ *
+ */
+
+public class ReplayLogCheck
+{
+    static final String USAGE = "Usage: ReplayLogCheck [-games n] [-size bytes] [-drain n] [-seed n]";
+
+    static final int[] SIZES = {4, 5, 6};
+
+    int games = 30;
+    int size = 256;
+    int drain = 7;
+    long seed = 0;
+
+    public static void main(String[] args) throws IOException {
+        ReplayLogCheck check = new ReplayLogCheck();
+        try {
+            check.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        System.exit(check.run() ? 0 : 1);
+    }
+
+    void parse(String[] args) {
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+
+            String value = args[i + 1];
+            try {
+                if (args[i].equals("-games")) {
+                    games = Integer.parseInt(value);
+                } else if (args[i].equals("-size")) {
+                    size = Integer.parseInt(value);
+                } else if (args[i].equals("-drain")) {
+                    drain = Integer.parseInt(value);
+                } else if (args[i].equals("-seed")) {
+                    seed = Long.parseLong(value);
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a number: " + value);
+            }
+        }
+        if (drain < 1) {
+            throw new IllegalArgumentException("-drain must be at least 1");
+        }
+    }
+
+    // False if a game was split or lost
+    boolean run() throws IOException {
+        Random random = new Random(seed);
+        ReplayWriter writer = new ReplayWriter();
+        List<byte[]> logs = new ArrayList<byte[]>();
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        ReplayWriter.writeHeader(log);
+        long[] scores = new long[games];
+        int moves = 0;
+
+        for (int i = 0; i < games; i++) {
+            int width = SIZES[i % SIZES.length];
+            Game game = new Game(width, width, width == 4 ? 11 : 16);
+            game.newGame(random.nextLong());
+            writer.startGame(game, 0);
+
+            while (!game.won && !game.lose) {
+                int direction = random.nextInt(4);
+                if (game.move(direction)) {
+                    writer.move(direction);
+                    if (random.nextInt(50) == 0 && game.revertState()) {
+                        writer.undo();
+                    }
+                }
+                if (++moves % drain == 0) {
+                    log = drain(writer, log, logs);
+                }
+            }
+            writer.end(game.score);
+            scores[i] = game.score;
+        }
+        log = drain(writer, log, logs);
+        logs.add(log.toByteArray());
+
+        boolean clean = true;
+        int read = 0;
+        for (int j = 0; j < logs.size(); j++) {
+            byte[] bytes = logs.get(j);
+            // The first record comes right after the 5-byte header
+            if (bytes.length > 5 && bytes[5] != Replay.GAME) {
+                System.out.println("Log " + j + " does not begin with a game");
+                clean = false;
+            }
+
+            Replay.Reader reader = new Replay.Reader(new ByteArrayInputStream(bytes));
+            Replay replay;
+            while ((replay = reader.next()) != null) {
+                Game game = replay.newGame();
+                if (read >= games || !replay.play(game) || !replay.matches(game)
+                        || replay.getScore() != scores[read]) {
+                    System.out.println("Game " + read + " (seed " + replay.seed + ", " + replay.width + "x"
+                            + replay.height + ") does not play out from log " + j);
+                    clean = false;
+                }
+                read++;
+            }
+        }
+        if (read != games) {
+            System.out.println(read + " games read back, " + games + " played");
+            clean = false;
+        }
+
+        System.out.println(games + " games, " + moves + " moves, " + logs.size() + " logs"
+                + (clean ? "" : ", some games split or lost"));
+        return clean;
+    }
+
+    // Like ReplayLog.write: the log to go on with, the full one kept in logs
+    private ByteArrayOutputStream drain(ReplayWriter writer, ByteArrayOutputStream log, List<byte[]> logs)
+            throws IOException {
+        if (writer.isEmpty()) {
+            return log;
+        }
+        if (log.size() > size && writer.hasGame()) {
+            writer.drainBeforeGame(log);
+            logs.add(log.toByteArray());
+            log = new ByteArrayOutputStream();
+            ReplayWriter.writeHeader(log);
+        }
+        writer.drain(log);
+        return log;
+    }
+}
@@ -0,0 +1,120 @@
+package us.shandian.game.twozero;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ *
+ * Plays the games of replay logs again, no UI involved, see Replay
+ * Every game must take every recorded move and end with the recorded
+ * score, so a change to the rules or the new tiles shows up at once
+ * The logs are read first, then the games are played -repeat times
+ * and the moves per second printed
+ * Exits with 1 if any game went another way
+ *
+ */
+
+public class Replayer
+{
+    static final String USAGE = "Usage: Replayer [-repeat n] [-verbose] file...";
+
+    int repeat = 1;
+    boolean verbose = false;
+    final List<String> files = new ArrayList<String>();
+
+    public static void main(String[] args) throws IOException {
+        Replayer replayer = new Replayer();
+        try {
+            replayer.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+
+        List<Replay> replays = new ArrayList<Replay>();
+        for (String file : replayer.files) {
+            replays.addAll(read(file));
+        }
+        System.exit(replayer.run(replays) ? 0 : 1);
+    }
+
+    void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-repeat")) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + args[i]);
+                }
+                try {
+                    repeat = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Not a number: " + args[i]);
+                }
+            } else if (args[i].equals("-verbose")) {
+                verbose = true;
+            } else if (args[i].startsWith("-")) {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            } else {
+                files.add(args[i]);
+            }
+        }
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("No replay log");
+        }
+    }
+
+    static List<Replay> read(String file) throws IOException {
+        List<Replay> replays = new ArrayList<Replay>();
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+        try {
+            Replay.Reader reader = new Replay.Reader(in);
+            Replay replay;
+            while ((replay = reader.next()) != null) {
+                replays.add(replay);
+            }
+        } finally {
+            in.close();
+        }
+        return replays;
+    }
+
+    // False if any game went another way
+    boolean run(List<Replay> replays) {
+        int mismatches = 0;
+        long moves = 0;
+        long start = System.nanoTime();
+
+        for (int pass = 0; pass < repeat; pass++) {
+            for (int i = 0; i < replays.size(); i++) {
+                Replay replay = replays.get(i);
+                Game game = replay.newGame();
+                boolean played = replay.play(game);
+                moves += replay.getMoves();
+
+                // Once is enough to tell
+                if (pass > 0) {
+                    continue;
+                }
+                if (!played || !replay.matches(game)) {
+                    mismatches++;
+                    System.out.println("Game " + i + " (seed " + replay.seed + ", " + replay.width + "x"
+                            + replay.height + ") " + (played ? "ended with " + game.score
+                            + " instead of " + replay.getScore() : "cannot take a recorded move"));
+                } else if (verbose) {
+                    System.out.println("Game " + i + " (seed " + replay.seed + ", " + replay.width + "x"
+                            + replay.height + ") " + replay.getMoves() + " moves, score " + game.score
+                            + (replay.isEnded() ? "" : ", not over"));
+                }
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("%d games, %d moves in %.2f s (%.0f moves/s), %d went another way",
+                replays.size(), moves, seconds, moves / seconds, mismatches));
+        return mismatches == 0;
+    }
+}
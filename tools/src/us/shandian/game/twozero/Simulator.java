@@ -0,0 +1,436 @@
+package us.shandian.game.twozero;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ *
+ * Plays a lot of games with the AI, no UI involved
+ * Game n is seeded with seed + n, so with a depth budget and
+ * no time limit every game can be played again exactly
+ *
+ * Every game is one line of the output:
+ *   seed maxTile score moves milliseconds
+ * Files ending with .gz are compressed
+ * With -replay the games also go into a replay log, see Replayer
+ *
+ */
+
+public class Simulator
+{
+    static final String USAGE =
+            "Usage: Simulator [-games n] [-threads n] [-size n] [-goal tile]\n" +
+            "                 [-time ms] [-depth n] [-seed n] [-weights file] [-out file]\n" +
+            "                 [-engine expectimax|montecarlo] [-playouts n] [-network file]\n" +
+            "                 [-replay file]";
+
+    static final double[] PERCENTILES = {0.1, 0.25, 0.5, 0.75, 0.9, 0.99};
+
+    // What play adds up over the moves of a game
+    static final int STAT_NODES = 0;
+    static final int STAT_DEPTHS = 1;
+    static final int STAT_OVERSHOOT = 2;
+    static final int STATS = 3;
+
+    int games = 1000;
+    int threads = Runtime.getRuntime().availableProcessors();
+    int size = 4;
+    int goal = 2048;
+    long timeLimit = -1;
+    int maxDepth = -1;
+    long seed = 0;
+    Weights weights = Weights.DEFAULT;
+    int engine = AI.ENGINE_EXPECTIMAX;
+    int playouts = 0;
+    NTupleNetwork network;
+    String out;
+    String replay;
+    boolean quiet = false;
+
+    // Results, indexed by game
+    long[] mScores;
+    int[] mMaxTiles;
+    int[] mMoves;
+    long[] mTimes;
+    long[][] mStats;
+
+    Writer mWriter;
+    OutputStream mReplays;
+    final AtomicInteger mNext = new AtomicInteger();
+    final AtomicInteger mDone = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        Simulator simulator = new Simulator();
+        try {
+            simulator.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+
+        long start = System.nanoTime();
+        simulator.run();
+        long elapsed = System.nanoTime() - start;
+
+        System.err.println();
+        simulator.printSummary(elapsed);
+    }
+
+    void parse(String[] args) {
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+
+            String value = args[i + 1];
+            try {
+                if (args[i].equals("-games")) {
+                    games = Integer.parseInt(value);
+                } else if (args[i].equals("-threads")) {
+                    threads = Integer.parseInt(value);
+                } else if (args[i].equals("-size")) {
+                    size = Integer.parseInt(value);
+                } else if (args[i].equals("-goal")) {
+                    goal = Integer.parseInt(value);
+                } else if (args[i].equals("-time")) {
+                    timeLimit = Long.parseLong(value);
+                } else if (args[i].equals("-depth")) {
+                    maxDepth = Integer.parseInt(value);
+                } else if (args[i].equals("-seed")) {
+                    seed = Long.parseLong(value);
+                } else if (args[i].equals("-weights")) {
+                    weights = loadWeights(value);
+                } else if (args[i].equals("-engine")) {
+                    if (value.equals("expectimax")) {
+                        engine = AI.ENGINE_EXPECTIMAX;
+                    } else if (value.equals("montecarlo")) {
+                        engine = AI.ENGINE_MONTE_CARLO;
+                    } else {
+                        throw new IllegalArgumentException("Unknown engine " + value);
+                    }
+                } else if (args[i].equals("-network")) {
+                    network = loadNetwork(value);
+                } else if (args[i].equals("-playouts")) {
+                    playouts = Integer.parseInt(value);
+                } else if (args[i].equals("-out")) {
+                    out = value;
+                } else if (args[i].equals("-replay")) {
+                    replay = value;
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a number: " + value);
+            }
+        }
+
+        if (goal < 2 || Integer.bitCount(goal) != 1) {
+            throw new IllegalArgumentException("The goal is a tile, a power of two");
+        }
+        if (size < Board.SIZE || size > WideBoard.MAX_SIZE) {
+            throw new IllegalArgumentException("Sizes go from 4 to 6");
+        }
+        applyDefaults();
+    }
+
+    // Budgets left unset by the options
+    void applyDefaults() {
+        if (timeLimit < 0) {
+            // Only a depth or playout budget: as long as it takes, and reproducible
+            boolean fixed = engine == AI.ENGINE_MONTE_CARLO ? playouts > 0 : maxDepth >= 0;
+            timeLimit = fixed ? TimeUnit.DAYS.toMillis(1) : AI.MAX_CONSIDERING_TIME;
+        }
+        if (maxDepth < 0) {
+            maxDepth = AI.MAX_DEPTH;
+        }
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+    }
+
+    static Weights loadWeights(String file) {
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                return Weights.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot read weights from " + file + ": " + e.getMessage());
+        }
+    }
+
+    // Mapped, all the workers share it
+    static NTupleNetwork loadNetwork(String file) {
+        try {
+            return NTupleNetwork.map(new File(file));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot read network from " + file + ": " + e.getMessage());
+        }
+    }
+
+    public void run() throws IOException, InterruptedException {
+        mScores = new long[games];
+        mMaxTiles = new int[games];
+        mMoves = new int[games];
+        mTimes = new long[games];
+        mStats = new long[games][];
+        mNext.set(0);
+        mDone.set(0);
+
+        mWriter = null;
+        if (out != null) {
+            OutputStream stream = new FileOutputStream(out);
+            if (out.endsWith(".gz")) {
+                stream = new GZIPOutputStream(stream, 1 << 16);
+            }
+            mWriter = new BufferedWriter(new OutputStreamWriter(stream, "UTF-8"), 1 << 16);
+            mWriter.write("# seed maxTile score moves milliseconds\n");
+        }
+
+        mReplays = null;
+        if (replay != null) {
+            mReplays = new BufferedOutputStream(new FileOutputStream(replay), 1 << 16);
+            ReplayWriter.writeHeader(mReplays);
+        }
+
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, "Simulator " + i);
+            workers[i].start();
+        }
+
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } finally {
+            if (mWriter != null) {
+                mWriter.close();
+            }
+            if (mReplays != null) {
+                mReplays.close();
+            }
+        }
+    }
+
+    // Each worker keeps one AI, and so one transposition table
+    void work() {
+        AI ai = null;
+        ReplayWriter replay = mReplays == null ? null : new ReplayWriter();
+        int index;
+        while ((index = mNext.getAndIncrement()) < games) {
+            Game game = new Game(size, size, Board.exponentOf(goal));
+            game.newGame(seed + index);
+            if (replay != null) {
+                replay.startGame(game, 0);
+            }
+
+            if (ai == null) {
+                ai = new AI(game);
+                ai.setWeights(weights);
+                if (network != null) {
+                    ai.setEvaluator(network);
+                }
+                ai.setTimeLimit(timeLimit);
+                ai.setMaxDepth(maxDepth);
+                ai.setEngine(engine);
+                ai.getMonteCarlo().setPlayouts(playouts);
+            } else {
+                ai.setGame(game);
+            }
+            ai.getMonteCarlo().setSeed(seed + index);
+
+            long start = System.nanoTime();
+            long[] stats = new long[STATS];
+            int moves = play(game, ai, stats, replay);
+            long time = System.nanoTime() - start;
+            if (replay != null) {
+                replay.end(game.score);
+                writeReplay(replay);
+            }
+
+            mScores[index] = game.score;
+            mMaxTiles[index] = maxTile(game.grid);
+            mMoves[index] = moves;
+            mTimes[index] = time;
+            mStats[index] = stats;
+
+            record(index);
+        }
+    }
+
+    // Until won or lost, returns the number of moves
+    static int play(Game game, AI ai) {
+        return play(game, ai, null, null);
+    }
+
+    // Also adds up the nodes (or playouts) and depths of the moves,
+    // and keeps the most a move went past its budget; the moves go to replay
+    static int play(Game game, AI ai, long[] stats, ReplayWriter replay) {
+        int moves = 0;
+        while (!game.won && !game.lose) {
+            int move = ai.getBestMove();
+            if (stats != null) {
+                stats[STAT_NODES] += ai.getLastNodes();
+                stats[STAT_DEPTHS] += ai.getLastDepth();
+                stats[STAT_OVERSHOOT] = Math.max(stats[STAT_OVERSHOOT],
+                        ai.getLastNanos() - ai.getLastBudget());
+            }
+            if (!game.move(move)) {
+                // The AI may give up, just play anything
+                move = -1;
+                for (int direction = 0; direction <= 3 && move < 0; direction++) {
+                    if (game.move(direction)) {
+                        move = direction;
+                    }
+                }
+                if (move < 0) {
+                    break;
+                }
+            }
+            if (replay != null) {
+                replay.move(move);
+            }
+            moves++;
+        }
+        return moves;
+    }
+
+    static int maxTile(Grid grid) {
+        int max = 0;
+        for (Tile[] array : grid.field) {
+            for (Tile tile : array) {
+                if (tile != null) {
+                    max = Math.max(max, tile.getValue());
+                }
+            }
+        }
+        return max;
+    }
+
+    // A whole game at once, the workers' games are not mixed up
+    void writeReplay(ReplayWriter replay) {
+        synchronized (mReplays) {
+            try {
+                replay.drain(mReplays);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    void record(int index) {
+        int done = mDone.incrementAndGet();
+
+        if (mWriter != null) {
+            String line = (seed + index) + " " + mMaxTiles[index] + " " + mScores[index] + " "
+                    + mMoves[index] + " " + TimeUnit.NANOSECONDS.toMillis(mTimes[index]) + "\n";
+            synchronized (mWriter) {
+                try {
+                    mWriter.write(line);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+
+        if (!quiet && (done % Math.max(1, games / 100) == 0 || done == games)) {
+            System.err.print("\r" + done + "/" + games + " games");
+        }
+    }
+
+    public double getMeanScore() {
+        return Stats.mean(mScores, games)[0];
+    }
+
+    public void printSummary(long elapsed) {
+        double seconds = elapsed / 1e9;
+        System.out.println(String.format("%d games of %dx%d in %.1f s (%.2f games/s), %d threads",
+                games, size, size, seconds, games / seconds, threads));
+
+        long wins = 0;
+        long moves = 0;
+        long time = 0;
+        long nodes = 0;
+        long depths = 0;
+        long overshoot = 0;
+        for (int i = 0; i < games; i++) {
+            if (mMaxTiles[i] >= goal) {
+                wins++;
+            }
+            moves += mMoves[i];
+            time += mTimes[i];
+            nodes += mStats[i][STAT_NODES];
+            depths += mStats[i][STAT_DEPTHS];
+            overshoot = Math.max(overshoot, mStats[i][STAT_OVERSHOOT]);
+        }
+        System.out.println(String.format("%.2f ms per move, at most %.2f ms past the budget",
+                moves == 0 ? 0 : time / 1e6 / moves, overshoot / 1e6));
+        // Per thread, as all of them play games
+        if (engine == AI.ENGINE_MONTE_CARLO) {
+            System.out.println(String.format("%.0f playouts per second, %.0f per move",
+                    time == 0 ? 0 : nodes * 1e9 / time, moves == 0 ? 0 : (double) nodes / moves));
+        } else {
+            System.out.println(String.format("%.0f nodes per second, %.0f per move, depth %.2f",
+                    time == 0 ? 0 : nodes * 1e9 / time, moves == 0 ? 0 : (double) nodes / moves,
+                    moves == 0 ? 0 : (double) depths / moves));
+        }
+
+        double[] rate = Stats.winRate(wins, games);
+        System.out.println(String.format("win rate (%d)  %6.2f%%  [%.2f%%, %.2f%%]",
+                goal, rate[0] * 100, rate[1] * 100, rate[2] * 100));
+
+        double[] mean = Stats.mean(mScores, games);
+        System.out.println(String.format("score mean     %8.0f  [%.0f, %.0f]", mean[0], mean[1], mean[2]));
+
+        long[] sorted = Stats.sorted(mScores, games);
+        for (double p : PERCENTILES) {
+            long[] percentile = Stats.percentile(sorted, games, p);
+            System.out.println(String.format("score p%-6s  %8d  [%d, %d]",
+                    format(p * 100), percentile[0], percentile[1], percentile[2]));
+        }
+
+        // How often each tile was reached
+        for (int tile = 2; tile > 0 && tile <= maxTile(mMaxTiles); tile <<= 1) {
+            int reached = 0;
+            for (int i = 0; i < games; i++) {
+                if (mMaxTiles[i] >= tile) {
+                    reached++;
+                }
+            }
+            if (reached < games) {
+                System.out.println(String.format("reached %-6d %6.2f%%", tile, reached * 100.0 / games));
+            }
+        }
+    }
+
+    private static int maxTile(int[] tiles) {
+        int max = 0;
+        for (int tile : tiles) {
+            max = Math.max(max, tile);
+        }
+        return max;
+    }
+
+    private static String format(double percent) {
+        return percent == Math.floor(percent) ? String.valueOf((int) percent) : String.valueOf(percent);
+    }
+}
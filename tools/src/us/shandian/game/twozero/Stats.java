@@ -0,0 +1,78 @@
+package us.shandian.game.twozero;
+
+import java.util.Arrays;
+
+/*
+ *
+ * 95% confidence intervals for what the simulator measures
+ * Win rate: Wilson score interval
+ * Mean: normal approximation
+ * Percentiles: order statistics, no assumption on the distribution
+ *
+ */
+
+public class Stats
+{
+    static final double Z = 1.959964;
+
+    private Stats() {
+    }
+
+    // {rate, low, high}
+    public static double[] winRate(long wins, long games) {
+        if (games == 0) {
+            return new double[]{0, 0, 1};
+        }
+
+        double p = (double) wins / games;
+        double z2 = Z * Z;
+        double center = (p + z2 / (2 * games)) / (1 + z2 / games);
+        double margin = Z / (1 + z2 / games) * Math.sqrt(p * (1 - p) / games + z2 / (4.0 * games * games));
+        return new double[]{p, Math.max(0, center - margin), Math.min(1, center + margin)};
+    }
+
+    // {mean, low, high}
+    public static double[] mean(long[] values, int count) {
+        if (count == 0) {
+            return new double[]{0, 0, 0};
+        }
+
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += values[i];
+        }
+        double mean = sum / count;
+
+        double squares = 0;
+        for (int i = 0; i < count; i++) {
+            squares += (values[i] - mean) * (values[i] - mean);
+        }
+        double margin = count > 1 ? Z * Math.sqrt(squares / (count - 1) / count) : 0;
+        return new double[]{mean, mean - margin, mean + margin};
+    }
+
+    // {value, low, high} of the fraction p of sorted values
+    // The bounds are the order statistics whose ranks the binomial
+    // distribution of "values below the true percentile" allows
+    public static long[] percentile(long[] sorted, int count, double p) {
+        if (count == 0) {
+            return new long[]{0, 0, 0};
+        }
+
+        double spread = Z * Math.sqrt(count * p * (1 - p));
+        int rank = clamp((int) Math.ceil(count * p) - 1, count);
+        int low = clamp((int) Math.floor(count * p - spread) - 1, count);
+        int high = clamp((int) Math.ceil(count * p + spread), count);
+        return new long[]{sorted[rank], sorted[low], sorted[high]};
+    }
+
+    public static long[] sorted(long[] values, int count) {
+        long[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static int clamp(int rank, int count) {
+        return Math.max(0, Math.min(count - 1, rank));
+    }
+}
@@ -0,0 +1,248 @@
+package us.shandian.game.twozero;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+ *
+ * Trains an NTupleNetwork by self-play, TD learning on afterstates
+ * (the board right after a move, before the new tile)
+ * The player always takes the move with the best points plus value,
+ * the new tiles are random enough to explore
+ *
+ * With lambda 0 the values are learnt after every move (TD(0)),
+ * otherwise after every game, going back over it with lambda-returns
+ *
+ */
+
+public class Trainer
+{
+    static final String USAGE =
+            "Usage: Trainer [-games n] [-alpha a] [-lambda l] [-seed n]\n" +
+            "               [-in file] [-out file] [-save n] [-report n]";
+
+    int games = 100000;
+    float alpha = 0.1f;
+    float lambda = 0f;
+    long seed = 0;
+    String in;
+    String out = "ntuple.bin";
+    int saveEvery = 10000;
+    int reportEvery = 1000;
+
+    NTupleNetwork mNetwork;
+    Random mRandom;
+
+    // One game, for lambda-returns
+    long[] mAfterstates = new long[1 << 12];
+    int[] mRewards = new int[1 << 12];
+
+    public static void main(String[] args) throws IOException {
+        Trainer trainer = new Trainer();
+        try {
+            trainer.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+
+        trainer.run();
+    }
+
+    void parse(String[] args) {
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+
+            String value = args[i + 1];
+            try {
+                if (args[i].equals("-games")) {
+                    games = Integer.parseInt(value);
+                } else if (args[i].equals("-alpha")) {
+                    alpha = Float.parseFloat(value);
+                } else if (args[i].equals("-lambda")) {
+                    lambda = Float.parseFloat(value);
+                } else if (args[i].equals("-seed")) {
+                    seed = Long.parseLong(value);
+                } else if (args[i].equals("-in")) {
+                    in = value;
+                } else if (args[i].equals("-out")) {
+                    out = value;
+                } else if (args[i].equals("-save")) {
+                    saveEvery = Integer.parseInt(value);
+                } else if (args[i].equals("-report")) {
+                    reportEvery = Integer.parseInt(value);
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a number: " + value);
+            }
+        }
+    }
+
+    void run() throws IOException {
+        if (in != null) {
+            FileInputStream stream = new FileInputStream(in);
+            try {
+                mNetwork = NTupleNetwork.load(stream);
+            } finally {
+                stream.close();
+            }
+        } else {
+            mNetwork = new NTupleNetwork();
+        }
+        mRandom = new Random(seed);
+
+        long totalScore = 0;
+        int[] maxTiles = new int[Board.MAX_EXPONENT + 1];
+        long start = System.nanoTime();
+
+        for (int game = 1; game <= games; game++) {
+            long board = spawn(spawn(0));
+            long score = lambda == 0 ? playTD0(board, maxTiles) : playTDLambda(board, maxTiles);
+            totalScore += score;
+
+            if (game % reportEvery == 0) {
+                report(game, totalScore, maxTiles, start);
+                totalScore = 0;
+                maxTiles = new int[Board.MAX_EXPONENT + 1];
+            }
+            if (game % saveEvery == 0 || game == games) {
+                save();
+            }
+        }
+    }
+
+    // Learns after every move, returns the score of the game
+    long playTD0(long board, int[] maxTiles) {
+        long score = 0;
+        long previous = -1;
+
+        while (true) {
+            int move = bestMove(board);
+            if (move == -1) {
+                break;
+            }
+
+            long afterstate = Board.move(board, move);
+            int reward = Board.scoreMove(board, move);
+            if (previous != -1) {
+                float target = reward + mNetwork.evaluate(afterstate);
+                mNetwork.update(previous, alpha * (target - mNetwork.evaluate(previous)));
+            }
+
+            score += reward;
+            previous = afterstate;
+            board = spawn(afterstate);
+        }
+
+        // Nothing more to come after the last one
+        if (previous != -1) {
+            mNetwork.update(previous, -alpha * mNetwork.evaluate(previous));
+        }
+        maxTiles[Board.maxExponent(board)]++;
+        return score;
+    }
+
+    // Plays the whole game, then learns from the end back to the start
+    long playTDLambda(long board, int[] maxTiles) {
+        long score = 0;
+        int moves = 0;
+
+        while (true) {
+            int move = bestMove(board);
+            if (move == -1) {
+                break;
+            }
+
+            if (moves == mAfterstates.length) {
+                mAfterstates = Arrays.copyOf(mAfterstates, moves * 2);
+                mRewards = Arrays.copyOf(mRewards, moves * 2);
+            }
+
+            long afterstate = Board.move(board, move);
+            mAfterstates[moves] = afterstate;
+            mRewards[moves] = Board.scoreMove(board, move);
+            score += mRewards[moves];
+            moves++;
+            board = spawn(afterstate);
+        }
+
+        // G(t) = r(t + 1) + (1 - lambda) V(t + 1) + lambda G(t + 1), and 0 at the end
+        float target = 0;
+        for (int t = moves - 1; t >= 0; t--) {
+            long afterstate = mAfterstates[t];
+            mNetwork.update(afterstate, alpha * (target - mNetwork.evaluate(afterstate)));
+
+            if (t > 0) {
+                target = mRewards[t] + (1 - lambda) * mNetwork.evaluate(afterstate) + lambda * target;
+            }
+        }
+
+        maxTiles[Board.maxExponent(board)]++;
+        return score;
+    }
+
+    // Best points plus value of the afterstate, -1 if the game is over
+    int bestMove(long board) {
+        int bestMove = -1;
+        float bestValue = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i <= 3; i++) {
+            long next = Board.move(board, i);
+            if (next == board) {
+                continue;
+            }
+
+            float value = Board.scoreMove(board, i) + mNetwork.evaluate(next);
+            if (value > bestValue) {
+                bestValue = value;
+                bestMove = i;
+            }
+        }
+        return bestMove;
+    }
+
+    long spawn(long board) {
+        int cell = Board.nthEmpty(board, mRandom.nextInt(Board.countEmpty(board)));
+        long tile = mRandom.nextFloat() < 0.9f ? 1 : 2;
+        return board | (tile << (4 * cell));
+    }
+
+    void report(int game, long totalScore, int[] maxTiles, long start) {
+        StringBuilder tiles = new StringBuilder();
+        int reached = 0;
+        for (int i = maxTiles.length - 1; i >= 11; i--) {
+            reached += maxTiles[i];
+            if (reached > 0) {
+                tiles.append(String.format(" %d:%.1f%%", 1 << i, reached * 100.0 / reportEvery));
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("%d games, %.0f s, mean score %.0f,%s",
+                game, seconds, (double) totalScore / reportEvery, tiles));
+    }
+
+    void save() throws IOException {
+        File target = new File(out);
+        File temp = new File(out + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            mNetwork.save(stream);
+        } finally {
+            stream.close();
+        }
+        if (!temp.renameTo(target)) {
+            target.delete();
+            if (!temp.renameTo(target)) {
+                throw new IOException("Cannot write " + out);
+            }
+        }
+    }
+}